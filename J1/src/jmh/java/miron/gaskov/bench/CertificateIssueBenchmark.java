@@ -0,0 +1,79 @@
+package miron.gaskov.bench;
+
+import miron.gaskov.common.KeyType;
+import miron.gaskov.server.generation.CertificateService;
+import miron.gaskov.server.generation.GenerationService;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Certificates per second; baseline replays the original per-call builder, converter and getEncoded path.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CertificateIssueBenchmark {
+    private static final int BATCH = 16;
+
+    // Strength of both the subject key and the issuer's signing key.
+    @Param({"2048", "4096", "8192"})
+    int keyBits;
+
+    CertificateService certs;
+    KeyPair issuer;
+    KeyPair subject;
+    List<CertificateService.Subject> batch;
+    SecureRandom rnd = new SecureRandom();
+
+    @Setup
+    public void setup() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        issuer = GenerationService.generateKeyPair(KeyType.rsa(keyBits));
+        certs = new CertificateService(new X500Name("CN=Bench Issuer"), issuer.getPrivate(), "SHA512withRSA", 30);
+        subject = GenerationService.generateKeyPair(KeyType.rsa(keyBits));
+        batch = Collections.nCopies(BATCH, new CertificateService.Subject("bench", subject.getPublic()));
+    }
+
+    @Benchmark
+    public byte[] baseline() throws Exception {
+        long now = System.currentTimeMillis();
+        var builder = new X509v3CertificateBuilder(new X500Name("CN=Bench Issuer"), new BigInteger(160, rnd),
+                new Date(now), new Date(now + 30 * 24L * 60 * 60 * 1000), new X500Name("CN=bench"),
+                SubjectPublicKeyInfo.getInstance(subject.getPublic().getEncoded()));
+        var holder = builder.build(new JcaContentSignerBuilder("SHA512withRSA").build(issuer.getPrivate()));
+        X509Certificate cert = new JcaX509CertificateConverter().setProvider("BC").getCertificate(holder);
+        return cert.getEncoded();
+    }
+
+    @Benchmark
+    public X509Certificate issueCertificate() throws Exception {
+        return certs.issueCertificate("bench", subject.getPublic());
+    }
+
+    @Benchmark
+    public byte[] issueDer() throws Exception {
+        return certs.issueDer("bench", subject.getPublic());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<byte[]> issueAll() throws Exception {
+        return certs.issueAll(batch);
+    }
+}
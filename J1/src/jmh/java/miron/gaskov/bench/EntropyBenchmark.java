@@ -0,0 +1,78 @@
+package miron.gaskov.bench;
+
+import miron.gaskov.common.KeyType;
+import miron.gaskov.server.generation.EntropySource;
+import miron.gaskov.server.generation.GenerationService;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Key pairs (plus a certificate serial each) per second on a fixed pool of generator threads, by where the
+ * randomness comes from: a new SecureRandom per key and one shared for serials (the old path), one SecureRandom
+ * shared by every thread, or the EntropySource's per-thread DRBGs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntropyBenchmark {
+    private static final int KEYS = 64;
+
+    @Param({"ec-p256", "rsa-2048"})
+    String keyType;
+
+    @Param({"new", "shared", "drbg"})
+    String source;
+
+    @Param({"1", "2", "4", "8"})
+    int threads;
+
+    KeyType type;
+    ExecutorService pool;
+    EntropySource entropy;
+    SecureRandom shared;
+
+    @Setup
+    public void setup() {
+        type = KeyType.parse(keyType);
+        pool = Executors.newFixedThreadPool(threads);
+        entropy = new EntropySource(EntropySource.DEFAULT_RESEED_BYTES, EntropySource.DEFAULT_RESEED_MILLIS);
+        shared = new SecureRandom();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdownNow();
+        entropy.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public long generate() throws Exception {
+        var results = new ArrayList<Future<Long>>(KEYS);
+        for (int i = 0; i < KEYS; i++) results.add(pool.submit(this::keyAndSerial));
+        long sum = 0;
+        for (Future<Long> f : results) sum += f.get();
+        return sum;
+    }
+
+    private long keyAndSerial() throws Exception {
+        SecureRandom keys = switch (source) {
+            case "new" -> new SecureRandom();
+            case "shared" -> shared;
+            default -> entropy.random();
+        };
+        SecureRandom serials = source.equals("drbg") ? keys : shared;
+        var kp = GenerationService.generateKeyPair(type, keys);
+        return kp.getPublic().getEncoded().length + new BigInteger(160, serials).bitLength();
+    }
+}
@@ -0,0 +1,25 @@
+package miron.gaskov.bench;
+
+import miron.gaskov.common.KeyType;
+import miron.gaskov.server.generation.GenerationService;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class KeyGenerationBenchmark {
+
+    @Param({"rsa-2048", "rsa-4096", "rsa-8192", "ec-p256", "ec-p384", "ed25519"})
+    String keyType;
+
+    @Benchmark
+    public KeyPair generateKeyPair() throws Exception {
+        return GenerationService.generateKeyPair(KeyType.parse(keyType));
+    }
+}
@@ -0,0 +1,118 @@
+package miron.gaskov.bench;
+
+import miron.gaskov.common.KeyType;
+import miron.gaskov.common.Protocol;
+import miron.gaskov.server.Server;
+import miron.gaskov.server.generation.CertificateService;
+import miron.gaskov.server.generation.GenerationScheduler;
+import miron.gaskov.server.generation.GenerationService;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Round trip through an in-process Server for a name that is already cached, so the numbers cover accept,
+ * parsing, framing and the write path but not key generation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackBenchmark {
+    private static final String NAME = "bench";
+
+    @Param({"2048", "4096", "8192"})
+    int keyBits;
+
+    int port;
+    Socket framed;
+    DataInputStream framedIn;
+    int requestId = 0;
+    GenerationScheduler scheduler;
+    Server server;
+
+    @Setup
+    public void setup() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        var signer = GenerationService.generateKeyPair(KeyType.RSA_2048);
+        var certs = new CertificateService(new X500Name("CN=Bench Issuer"), signer.getPrivate(), "SHA512withRSA", 30);
+        scheduler = new GenerationScheduler(1, 16, 0);
+        var generation = new GenerationService(scheduler, certs, KeyType.rsa(keyBits));
+        generation.get(NAME).get();
+
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        server = new Server(port, generation);
+        Thread t = new Thread(() -> {
+            try {
+                server.run();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }, "bench-server");
+        t.setDaemon(true);
+        t.start();
+
+        framed = connect();
+        framedIn = new DataInputStream(framed.getInputStream());
+        write(framed.getOutputStream(), Protocol.hello());
+        framedIn.readShort();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        framed.close();
+        server.close();
+        scheduler.shutdown(1000);
+    }
+
+    @Benchmark
+    public int legacyRoundTrip() throws IOException {
+        try (Socket s = connect()) {
+            OutputStream out = s.getOutputStream();
+            out.write(NAME.getBytes(StandardCharsets.US_ASCII));
+            out.write(0);
+            out.flush();
+            var in = new DataInputStream(s.getInputStream());
+            int keyLen = in.readInt();
+            in.skipNBytes(keyLen);
+            int crtLen = in.readInt();
+            in.skipNBytes(crtLen);
+            return keyLen + crtLen;
+        }
+    }
+
+    @Benchmark
+    public int framedRoundTrip() throws IOException {
+        write(framed.getOutputStream(), Protocol.get(requestId++, NAME));
+        int len = framedIn.readInt();
+        framedIn.skipNBytes(len);
+        return len;
+    }
+
+    private Socket connect() throws IOException {
+        Socket s = new Socket();
+        s.connect(new InetSocketAddress("127.0.0.1", port));
+        s.setTcpNoDelay(true);
+        return s;
+    }
+
+    private static void write(OutputStream out, ByteBuffer b) throws IOException {
+        out.write(b.array(), b.arrayOffset() + b.position(), b.remaining());
+        out.flush();
+    }
+}
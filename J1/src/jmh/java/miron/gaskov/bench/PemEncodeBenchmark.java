@@ -0,0 +1,47 @@
+package miron.gaskov.bench;
+
+import miron.gaskov.common.KeyType;
+import miron.gaskov.common.Pem;
+import miron.gaskov.server.generation.CertificateService;
+import miron.gaskov.server.generation.GenerationService;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.KeyPair;
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PemEncodeBenchmark {
+
+    @Param({"2048", "4096", "8192"})
+    int keyBits;
+
+    byte[] keyDer;
+    byte[] crtDer;
+
+    @Setup
+    public void setup() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        KeyPair kp = GenerationService.generateKeyPair(KeyType.rsa(keyBits));
+        var certs = new CertificateService(new X500Name("CN=Bench Issuer"), kp.getPrivate(), "SHA512withRSA", 30);
+        keyDer = kp.getPrivate().getEncoded();
+        crtDer = certs.issueCertificate("bench", kp.getPublic()).getEncoded();
+    }
+
+    @Benchmark
+    public byte[] privateKey() {
+        return Pem.encode("PRIVATE KEY", keyDer);
+    }
+
+    @Benchmark
+    public byte[] certificate() {
+        return Pem.encode("CERTIFICATE", crtDer);
+    }
+}
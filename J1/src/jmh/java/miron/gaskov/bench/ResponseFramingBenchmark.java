@@ -0,0 +1,73 @@
+package miron.gaskov.bench;
+
+import miron.gaskov.common.KeyMaterial;
+import miron.gaskov.common.Pem;
+import miron.gaskov.server.generation.FramedMaterial;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseFramingBenchmark {
+
+    @Param({"2048", "4096", "8192"})
+    int keyBits;
+
+    byte[] keyDer;
+    byte[] crtDer;
+    KeyMaterial material;
+    FramedMaterial framed;
+
+    @Setup
+    public void setup() {
+        // DER sizes observed for PKCS#8 RSA keys and certificates of the given strength.
+        keyDer = new byte[keyBits * 9 / 16 + 30];
+        crtDer = new byte[keyBits / 4 + 600];
+        ThreadLocalRandom.current().nextBytes(keyDer);
+        ThreadLocalRandom.current().nextBytes(crtDer);
+        material = new KeyMaterial(Pem.encode("PRIVATE KEY", keyDer), Pem.encode("CERTIFICATE", crtDer));
+        framed = FramedMaterial.of(keyDer, crtDer);
+        framed.frames(false);
+    }
+
+    @Benchmark
+    public void copyPerResponse(Blackhole bh) {
+        bh.consume(lenPrefixed(material.privateKeyPem()));
+        bh.consume(lenPrefixed(material.certificatePem()));
+    }
+
+    @Benchmark
+    public FramedMaterial frameOnce() {
+        return FramedMaterial.of(keyDer, crtDer);
+    }
+
+    // A cache miss answered to a PEM client: framing plus the one-off base64 pass.
+    @Benchmark
+    public ByteBuffer firstPemResponse() {
+        return FramedMaterial.of(keyDer, crtDer).frames(false);
+    }
+
+    @Benchmark
+    public ByteBuffer sharedPemFrames() {
+        return framed.frames(false);
+    }
+
+    @Benchmark
+    public ByteBuffer sharedDerFrames() {
+        return framed.frames(true);
+    }
+
+    private static ByteBuffer lenPrefixed(byte[] payload) {
+        ByteBuffer b = ByteBuffer.allocate(4 + payload.length);
+        b.putInt(payload.length).put(payload).flip();
+        return b;
+    }
+}
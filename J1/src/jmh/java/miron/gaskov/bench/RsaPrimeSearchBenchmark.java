@@ -0,0 +1,42 @@
+package miron.gaskov.bench;
+
+import miron.gaskov.common.KeyType;
+import miron.gaskov.server.generation.GenerationService;
+import miron.gaskov.server.generation.ParallelRsaKeyGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+// Single-key latency of the parallel prime search against thread count; threads = 0 is the JDK generator.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RsaPrimeSearchBenchmark {
+
+    @Param({"2048", "4096", "8192"})
+    int keyBits;
+
+    @Param({"0", "1", "2", "4", "8"})
+    int threads;
+
+    ParallelRsaKeyGenerator generator;
+
+    @Setup
+    public void setup() {
+        if (threads > 0) generator = new ParallelRsaKeyGenerator(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (generator != null) generator.close();
+    }
+
+    @Benchmark
+    public KeyPair generateKeyPair() throws Exception {
+        return generator != null ? generator.generate(keyBits) : GenerationService.generateKeyPair(KeyType.rsa(keyBits));
+    }
+}
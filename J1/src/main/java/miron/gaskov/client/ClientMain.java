@@ -1,24 +1,63 @@
 package miron.gaskov.client;
 
 import miron.gaskov.common.KeyMaterial;
+import miron.gaskov.common.OverloadedException;
+import miron.gaskov.common.Protocol;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 public final class ClientMain {
 
     private static final int CONNECT_TIMEOUT_MS = 10_000;
+    private static final long BACKOFF_BASE_MS = 200;
+    private static final long BACKOFF_CAP_MS = 10_000;
 
     public static void main(String[] args) {
         var opts = ClientOptions.parse(args);
 
+        try {
+            if (opts.namesFile() != null || opts.protocol() >= 2) {
+                try (
+                        Socket socket = connect(opts.host(), opts.port());
+                        BufferedOutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))
+                ) {
+                    if (opts.namesFile() != null) runBatch(out, in, opts);
+                    else runFramed(out, in, opts);
+                }
+                return;
+            }
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    runLegacy(opts);
+                    return;
+                } catch (OverloadedException e) {
+                    if (attempt >= opts.retries()) throw e;
+                    long wait = backoffMillis(attempt, e.retryAfterMillis());
+                    System.out.println("Server overloaded, retrying in " + wait + " ms");
+                    Thread.sleep(wait);
+                }
+            }
+        } catch (Throwable e) {
+            System.err.println("Client failed: " + e.getClass().getSimpleName() + ": " + e.getMessage());
+            e.printStackTrace(System.err);
+            System.exit(1);
+        }
+    }
+
+    private static void runLegacy(ClientOptions opts) throws Exception {
         try (
                 Socket socket = connect(opts.host(), opts.port());
                 BufferedOutputStream out = new BufferedOutputStream(socket.getOutputStream());
@@ -36,16 +75,16 @@ public final class ClientMain {
             }
 
             KeyMaterial resp = readResponse(in);
-            saveResponse(resp, opts.outPrefix());
+            saveResponse(resp, opts.outPrefix(), false);
             System.out.println("Saved " + opts.outPrefix() + ".key (" + resp.privateKeyPem().length + " B), " +
                     opts.outPrefix() + ".crt (" + resp.certificatePem().length + " B)");
-        } catch (Throwable e) {
-            System.err.println("Client failed: " + e.getClass().getSimpleName() + ": " + e.getMessage());
-            e.printStackTrace(System.err);
-            System.exit(1);
         }
     }
 
+    static long backoffMillis(int attempt, int retryAfterMillis) {
+        return KeyClient.backoffMillis(attempt, retryAfterMillis, BACKOFF_BASE_MS, BACKOFF_CAP_MS);
+    }
+
     private static Socket connect(String host, int port) throws Exception {
         System.out.println("Connecting to " + host + ":" + port + " ...");
         Socket s = new Socket();
@@ -62,10 +101,206 @@ public final class ClientMain {
         System.out.println("Sent name '" + name + "' (" + nameBytes.length + " bytes + NUL)");
     }
 
+    private static void runFramed(BufferedOutputStream out, DataInputStream in, ClientOptions opts) throws Exception {
+        String[] names = opts.name().split(",");
+        var nameOf = new ArrayList<Integer>();
+        write(out, Protocol.hello());
+        for (int i = 0; i < names.length; i++) {
+            nameOf.add(i);
+            write(out, Protocol.get(i, names[i], opts.keyType(), opts.flags(), opts.tenant()));
+        }
+        out.flush();
+        System.out.println("Sent " + names.length + " pipelined request(s)");
+
+        if (opts.abort()) {
+            System.out.println("Abort requested: exiting before reading (simulation).");
+            return;
+        }
+        if (opts.delaySec() > 0) {
+            System.out.println("Sleeping " + opts.delaySec() + " s before reading...");
+            Thread.sleep(opts.delaySec() * 1000L);
+        }
+
+        if (in.readByte() != Protocol.MAGIC || in.readByte() != Protocol.VERSION)
+            throw new EOFException("Server does not speak protocol v" + Protocol.VERSION);
+
+        int failed = 0;
+        int outstanding = names.length;
+        int round = 0;
+        var retry = new ArrayList<Integer>();
+        int retryAfter = 0;
+        while (outstanding > 0) {
+            int len = in.readInt();
+            byte type = in.readByte();
+            int requestId = in.readInt();
+            byte status = in.readByte();
+            if (type != Protocol.RESULT || requestId < 0 || requestId >= nameOf.size())
+                throw new EOFException("Unexpected frame type=" + type + " id=" + requestId);
+            int n = nameOf.get(requestId);
+            outstanding--;
+            if (status == Protocol.STATUS_OVERLOADED) {
+                int after = in.readInt();
+                if (round < opts.retries()) {
+                    retry.add(n);
+                    retryAfter = Math.max(retryAfter, after);
+                } else {
+                    System.err.println("Request '" + names[n] + "' failed: server overloaded");
+                    failed++;
+                }
+            } else if (status != Protocol.STATUS_OK) {
+                byte[] msg = new byte[in.readUnsignedShort()];
+                in.readFully(msg);
+                System.err.println("Request '" + names[n] + "' failed: " + new String(msg, StandardCharsets.UTF_8));
+                failed++;
+            } else {
+                KeyMaterial resp = readResponse(in);
+                String prefix = names.length == 1 ? opts.outPrefix() : opts.outPrefix() + "-" + names[n];
+                saveResponse(resp, prefix, opts.der());
+                System.out.println("Saved " + prefix + keySuffix(opts.der()) + ", " + prefix + certSuffix(opts.der()) +
+                        " (" + len + " B frame)");
+            }
+
+            if (outstanding == 0 && !retry.isEmpty()) {
+                long wait = backoffMillis(round++, retryAfter);
+                System.out.println("Server overloaded, retrying " + retry.size() + " request(s) in " + wait + " ms");
+                Thread.sleep(wait);
+                for (int r : retry) {
+                    nameOf.add(r);
+                    write(out, Protocol.get(nameOf.size() - 1, names[r], opts.keyType(), opts.flags(), opts.tenant()));
+                }
+                out.flush();
+                outstanding = retry.size();
+                retry.clear();
+                retryAfter = 0;
+            }
+        }
+        if (failed > 0) throw new EOFException(failed + " of " + names.length + " requests failed");
+    }
+
+    // The names file is streamed: one BATCH per chunk that fits the frame limits, each answered before the next.
+    private static void runBatch(BufferedOutputStream out, DataInputStream in, ClientOptions opts) throws Exception {
+        try (var names = Files.newBufferedReader(Path.of(opts.namesFile()))) {
+            write(out, Protocol.hello());
+            List<String> chunk = nextChunk(names);
+            int id = 0;
+            send(out, id, chunk, opts);
+
+            if (opts.abort()) {
+                System.out.println("Abort requested: exiting before reading (simulation).");
+                return;
+            }
+            if (opts.delaySec() > 0) {
+                System.out.println("Sleeping " + opts.delaySec() + " s before reading...");
+                Thread.sleep(opts.delaySec() * 1000L);
+            }
+
+            if (in.readByte() != Protocol.MAGIC || in.readByte() != Protocol.VERSION)
+                throw new EOFException("Server does not speak protocol v" + Protocol.VERSION);
+
+            int total = 0;
+            var failed = new ArrayList<String>();
+            while (true) {
+                total += chunk.size();
+                id = runChunk(out, in, opts, chunk, id, failed) + 1;
+                chunk = nextChunk(names);
+                if (chunk.isEmpty()) break;
+                send(out, id, chunk, opts);
+            }
+            if (!failed.isEmpty()) throw new EOFException(failed.size() + " of " + total + " names failed " + failed);
+        }
+    }
+
+    // Stops while there is still room for the longest name, so no line has to be carried to the next chunk.
+    private static List<String> nextChunk(BufferedReader names) throws Exception {
+        var chunk = new ArrayList<String>();
+        int bytes = 0;
+        while (chunk.size() < Protocol.MAX_BATCH && bytes <= Protocol.MAX_BATCH_NAME_BYTES - 2 - Protocol.MAX_NAME) {
+            String line = names.readLine();
+            if (line == null) break;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            chunk.add(line);
+            bytes += 2 + line.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return chunk;
+    }
+
+    private static void send(BufferedOutputStream out, int id, List<String> chunk, ClientOptions opts) throws Exception {
+        write(out, Protocol.batch(id, chunk, opts.keyType(), opts.flags(), opts.tenant()));
+        out.flush();
+        System.out.println("Sent batch #" + id + " of " + chunk.size() + " names from " + opts.namesFile());
+    }
+
+    // Reads one batch through its SUMMARY, resending overloaded names under new ids; returns the last id used.
+    private static int runChunk(BufferedOutputStream out, DataInputStream in, ClientOptions opts, List<String> names,
+                                int id, List<String> failed) throws Exception {
+        int saved = 0;
+        int round = 0;
+        List<String> pending = names;
+        var overloaded = new ArrayList<Integer>();
+        int retryAfter = 0;
+        while (true) {
+            in.readInt();
+            byte type = in.readByte();
+            int requestId = in.readInt();
+            byte status = in.readByte();
+            if (type == Protocol.SUMMARY) {
+                int succeeded = in.readInt();
+                int failedCount = in.readInt();
+                for (int i = 0; i < failedCount; i++) {
+                    int index = in.readInt();
+                    if (!overloaded.contains(index)) failed.add(pending.get(index));
+                }
+                System.out.println("Batch #" + id + " done: " + succeeded + " ok, " + failedCount + " failed (" +
+                        overloaded.size() + " overloaded), " + saved + " saved");
+                if (overloaded.isEmpty() || round >= opts.retries()) {
+                    for (int index : overloaded) failed.add(pending.get(index));
+                    return id;
+                }
+                long wait = backoffMillis(round++, retryAfter);
+                System.out.println("Server overloaded, retrying " + overloaded.size() + " name(s) in " + wait + " ms");
+                Thread.sleep(wait);
+                pending = overloaded.stream().map(pending::get).toList();
+                write(out, Protocol.batch(++id, pending, opts.keyType(), opts.flags(), opts.tenant()));
+                out.flush();
+                overloaded.clear();
+                retryAfter = 0;
+                continue;
+            }
+            if (type == Protocol.RESULT && status != Protocol.STATUS_OK) {
+                byte[] msg = new byte[in.readUnsignedShort()];
+                in.readFully(msg);
+                throw new EOFException("Batch rejected: " + new String(msg, StandardCharsets.UTF_8));
+            }
+            if (type != Protocol.ITEM || requestId != id) throw new EOFException("Unexpected frame type=" + type);
+            int index = in.readInt();
+            if (index < 0 || index >= pending.size()) throw new EOFException("Bad item index " + index);
+            if (status == Protocol.STATUS_OVERLOADED) {
+                overloaded.add(index);
+                retryAfter = Math.max(retryAfter, in.readInt());
+                continue;
+            }
+            if (status != Protocol.STATUS_OK) {
+                byte[] msg = new byte[in.readUnsignedShort()];
+                in.readFully(msg);
+                System.err.println("Name '" + pending.get(index) + "' failed: " + new String(msg, StandardCharsets.UTF_8));
+                continue;
+            }
+            String prefix = opts.outPrefix() + "-" + pending.get(index);
+            saveResponse(readResponse(in), prefix, opts.der());
+            saved++;
+        }
+    }
+
+    private static void write(BufferedOutputStream out, ByteBuffer b) throws Exception {
+        out.write(b.array(), b.arrayOffset() + b.position(), b.remaining());
+    }
+
     private static KeyMaterial readResponse(DataInputStream in) throws Exception {
         System.out.println("Waiting for response...");
 
         int keyLen = in.readInt();
+        if (keyLen == Protocol.LEGACY_OVERLOADED) throw new OverloadedException("server overloaded", in.readInt());
         if (keyLen <= 0) throw new EOFException("Invalid key length: " + keyLen);
         byte[] keyPem = new byte[keyLen];
         in.readFully(keyPem);
@@ -79,10 +314,19 @@ public final class ClientMain {
         return new KeyMaterial(keyPem, crtPem);
     }
 
-    private static void saveResponse(KeyMaterial resp, String outPrefix) throws Exception {
-        Path keyPath = Path.of(outPrefix + ".key");
-        Path crtPath = Path.of(outPrefix + ".crt");
+    // With FLAG_DER the two frames hold the PKCS#8 key and the certificate as raw DER.
+    private static void saveResponse(KeyMaterial resp, String outPrefix, boolean der) throws Exception {
+        Path keyPath = Path.of(outPrefix + keySuffix(der));
+        Path crtPath = Path.of(outPrefix + certSuffix(der));
         Files.write(keyPath, resp.privateKeyPem());
         Files.write(crtPath, resp.certificatePem());
     }
+
+    private static String keySuffix(boolean der) {
+        return der ? ".key.der" : ".key";
+    }
+
+    private static String certSuffix(boolean der) {
+        return der ? ".crt.der" : ".crt";
+    }
 }
@@ -1,6 +1,10 @@
 package miron.gaskov.client;
 
-record ClientOptions(String host, int port, String name, String outPrefix, int delaySec, boolean abort) {
+import miron.gaskov.common.KeyType;
+import miron.gaskov.common.Protocol;
+
+record ClientOptions(String host, int port, String name, String outPrefix, int delaySec, boolean abort, int protocol,
+                     String namesFile, int retries, KeyType keyType, boolean der, String tenant) {
     static ClientOptions parse(String[] args) {
         String host = "127.0.0.1";
         int port = 9999;
@@ -8,6 +12,12 @@ record ClientOptions(String host, int port, String name, String outPrefix, int d
         String out = "out";
         int delay = 0;
         boolean abort = false;
+        int protocol = 1;
+        String namesFile = null;
+        int retries = 3;
+        KeyType keyType = null;
+        boolean der = false;
+        String tenant = null;
 
         for (int i = 0; i < args.length; i += 2) {
             String v = (i + 1 < args.length) ? args[i + 1] : "";
@@ -18,8 +28,23 @@ record ClientOptions(String host, int port, String name, String outPrefix, int d
                 case "--out" -> out = v;
                 case "--delay" -> delay = Integer.parseInt(v);
                 case "--abort" -> abort = Boolean.parseBoolean(v);
+                case "--protocol" -> protocol = Integer.parseInt(v);
+                case "--names-file" -> namesFile = v;
+                case "--retries" -> retries = Integer.parseInt(v);
+                case "--key-type" -> keyType = KeyType.parse(v);
+                case "--tenant" -> tenant = v;
+                case "--format" -> der = switch (v) {
+                    case "der" -> true;
+                    case "pem" -> false;
+                    default -> throw new IllegalArgumentException("Unknown format: " + v + " (der, pem)");
+                };
             }
         }
-        return new ClientOptions(host, port, name, out, delay, abort);
+        if (namesFile != null || keyType != null || der || tenant != null) protocol = Math.max(protocol, 2);
+        return new ClientOptions(host, port, name, out, delay, abort, protocol, namesFile, retries, keyType, der, tenant);
+    }
+
+    byte flags() {
+        return der ? Protocol.FLAG_DER : 0;
     }
 }
\ No newline at end of file
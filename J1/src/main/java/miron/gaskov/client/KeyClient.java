@@ -0,0 +1,284 @@
+package miron.gaskov.client;
+
+import miron.gaskov.common.KeyMaterial;
+import miron.gaskov.common.KeyType;
+import miron.gaskov.common.OverloadedException;
+import miron.gaskov.common.Protocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Embeddable asynchronous client for the framed protocol. Requests are multiplexed over at most
+ * opts.connections() sockets, each drained by a virtual-thread reader, and a new socket is opened only when
+ * every open one already has requests in flight. Concurrent fetches of the same name for the same tenant share
+ * one request.
+ * Overloads, timeouts and broken connections are retried with backoff; an error reported by the server is not.
+ */
+public final class KeyClient implements AutoCloseable {
+    private final KeyClientOptions opts;
+    private final InetSocketAddress address;
+    private final Connection[] pool;
+    private final ConcurrentHashMap<String, CompletableFuture<ByteBuffer>> inflight = new ConcurrentHashMap<>();
+    private final ExecutorService io = Executors.newVirtualThreadPerTaskExecutor();
+    private volatile boolean closed = false;
+
+    public KeyClient(KeyClientOptions opts) {
+        this.opts = opts;
+        this.address = new InetSocketAddress(opts.host(), opts.port());
+        this.pool = new Connection[opts.connections()];
+    }
+
+    public CompletableFuture<KeyMaterial> fetch(String name) {
+        return fetch(name, opts.keyType());
+    }
+
+    public CompletableFuture<KeyMaterial> fetch(String name, KeyType keyType) {
+        return fetchFrames(name, keyType, opts.der() ? Protocol.FLAG_DER : 0).thenApply(KeyClient::material);
+    }
+
+    // The body of an OK result, [int len][key][int len][certificate], with flags sent as given.
+    public CompletableFuture<ByteBuffer> fetchFrames(String name, KeyType keyType, byte flags) {
+        return fetchFrames(name, keyType, flags, opts.tenant());
+    }
+
+    public CompletableFuture<ByteBuffer> fetchFrames(String name, KeyType keyType, byte flags, String tenant) {
+        String key = name + '\0' + (keyType != null ? keyType.code() : 0) + '\0' + flags + '\0'
+                + (tenant != null ? tenant : "");
+        while (true) {
+            var running = inflight.get(key);
+            if (running != null) return running.thenApply(ByteBuffer::asReadOnlyBuffer);
+            // Callers depend on the stage that leaves the map, so none of them sees the name still in flight.
+            var attempts = new CompletableFuture<ByteBuffer>();
+            var result = attempts.whenComplete((b, e) -> inflight.remove(key));
+            if (inflight.putIfAbsent(key, result) != null) continue;
+            attempt(attempts, name, keyType, flags, tenant, 0);
+            return result.thenApply(ByteBuffer::asReadOnlyBuffer);
+        }
+    }
+
+    public int inFlight() {
+        return inflight.size();
+    }
+
+    // Exponential backoff with jitter, never sooner than the server asked for.
+    static long backoffMillis(int attempt, int retryAfterMillis, long baseMillis, long capMillis) {
+        long base = Math.min(capMillis, baseMillis << Math.min(attempt, 16));
+        long wait = Math.max(base, retryAfterMillis);
+        return wait + ThreadLocalRandom.current().nextLong(wait / 2 + 1);
+    }
+
+    private void attempt(CompletableFuture<ByteBuffer> result, String name, KeyType keyType, byte flags, String tenant,
+                         int attempt) {
+        try {
+            if (closed) throw new RejectedExecutionException();
+            io.execute(() -> {
+                CompletableFuture<ByteBuffer> call;
+                try {
+                    call = connection().send(name, keyType, flags, tenant);
+                } catch (IOException | RuntimeException e) {
+                    call = CompletableFuture.failedFuture(e);
+                }
+                if (opts.requestTimeoutMillis() > 0) call.orTimeout(opts.requestTimeoutMillis(), TimeUnit.MILLISECONDS);
+                call.whenComplete((body, e) -> {
+                    if (e == null) {
+                        result.complete(body);
+                        return;
+                    }
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (attempt >= opts.retries() || !retryable(cause)) {
+                        result.completeExceptionally(cause);
+                        return;
+                    }
+                    int after = cause instanceof OverloadedException o ? o.retryAfterMillis() : 0;
+                    long wait = backoffMillis(attempt, after, opts.backoffBaseMillis(), opts.backoffCapMillis());
+                    CompletableFuture.delayedExecutor(wait, TimeUnit.MILLISECONDS)
+                            .execute(() -> attempt(result, name, keyType, flags, tenant, attempt + 1));
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new IOException("client for " + address + " closed"));
+        }
+    }
+
+    private static boolean retryable(Throwable e) {
+        return e instanceof OverloadedException || e instanceof TimeoutException
+                || e instanceof IOException && !(e instanceof ServerException);
+    }
+
+    // The least loaded open connection, or a new one while all of them are busy and a slot is free.
+    private Connection connection() {
+        synchronized (pool) {
+            Connection best = null;
+            int free = -1;
+            for (int i = 0; i < pool.length; i++) {
+                Connection c = pool[i];
+                if (c == null || c.failed) {
+                    if (free < 0) free = i;
+                } else if (best == null || c.load() < best.load()) {
+                    best = c;
+                }
+            }
+            if (best != null && (best.load() == 0 || free < 0)) return best;
+            return pool[free] = new Connection();
+        }
+    }
+
+    private static KeyMaterial material(ByteBuffer body) {
+        byte[] key = new byte[body.getInt()];
+        body.get(key);
+        byte[] crt = new byte[body.getInt()];
+        body.get(crt);
+        return new KeyMaterial(key, crt);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (pool) {
+            for (Connection c : pool) {
+                if (c != null) c.close();
+            }
+        }
+        io.shutdown();
+    }
+
+    // The server answered the request with STATUS_ERROR; retrying would get the same answer.
+    public static final class ServerException extends IOException {
+        ServerException(String message) {
+            super(message);
+        }
+    }
+
+    // Locks rather than monitors: callers are virtual threads, and blocking I/O inside a monitor pins the carrier.
+    private final class Connection {
+        private final ConcurrentHashMap<Integer, CompletableFuture<ByteBuffer>> pending = new ConcurrentHashMap<>();
+        private final ReentrantLock connecting = new ReentrantLock();
+        private final ReentrantLock writing = new ReentrantLock();
+        private int nextId;
+        private volatile Socket socket;
+        private OutputStream out;
+        private volatile boolean failed = false;
+
+        int load() {
+            return pending.size();
+        }
+
+        CompletableFuture<ByteBuffer> send(String name, KeyType keyType, byte flags, String tenant)
+                throws IOException {
+            if (socket == null) connect();
+            var call = new CompletableFuture<ByteBuffer>();
+            writing.lock();
+            try {
+                if (failed) throw new IOException("connection to " + address + " lost");
+                int id = ++nextId;
+                ByteBuffer request = Protocol.get(id, name, keyType, flags, tenant);
+                pending.put(id, call);
+                call.whenComplete((b, e) -> pending.remove(id));
+                try {
+                    out.write(request.array(), request.arrayOffset() + request.position(), request.remaining());
+                    out.flush();
+                } catch (IOException e) {
+                    fail(e);
+                }
+            } finally {
+                writing.unlock();
+            }
+            return call;
+        }
+
+        // Only the first caller connects; the others wait for it, then find the socket published.
+        private void connect() throws IOException {
+            connecting.lock();
+            try {
+                if (socket != null) return;
+                if (failed) throw new IOException("connection to " + address + " lost");
+                var s = new Socket();
+                try {
+                    s.connect(address, opts.connectTimeoutMillis());
+                    s.setTcpNoDelay(true);
+                    out = new BufferedOutputStream(s.getOutputStream());
+                    ByteBuffer hello = Protocol.hello();
+                    out.write(hello.array(), 0, hello.remaining());
+                } catch (IOException e) {
+                    failed = true;
+                    s.close();
+                    throw new IOException(address + " unreachable: " + e.getMessage(), e);
+                }
+                socket = s;
+                var in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                Thread.ofVirtual().name("key-client-" + address.getPort()).start(() -> readLoop(in));
+            } finally {
+                connecting.unlock();
+            }
+        }
+
+        private void readLoop(DataInputStream in) {
+            try {
+                if (in.readByte() != Protocol.MAGIC || in.readByte() != Protocol.VERSION)
+                    throw new IOException(address + " does not speak protocol v" + Protocol.VERSION);
+                while (true) {
+                    int len = in.readInt();
+                    if (len < Protocol.RESPONSE_HEADER - 4 || len > Protocol.MAX_REQUEST + Protocol.RESPONSE_HEADER)
+                        throw new IOException(address + " sent bad frame length " + len);
+                    byte type = in.readByte();
+                    int id = in.readInt();
+                    byte status = in.readByte();
+                    byte[] body = new byte[len - (Protocol.RESPONSE_HEADER - 4)];
+                    in.readFully(body);
+                    if (type != Protocol.RESULT) throw new IOException(address + " sent unexpected frame type " + type);
+                    var call = pending.get(id);
+                    if (call != null) complete(call, status, ByteBuffer.wrap(body));
+                }
+            } catch (IOException e) {
+                fail(e instanceof EOFException ? new IOException(address + " closed the connection") : e);
+            }
+        }
+
+        private void complete(CompletableFuture<ByteBuffer> call, byte status, ByteBuffer body) {
+            switch (status) {
+                case Protocol.STATUS_OK -> call.complete(body);
+                case Protocol.STATUS_OVERLOADED -> call.completeExceptionally(
+                        new OverloadedException(address + " overloaded", body.getInt()));
+                default -> {
+                    byte[] m = new byte[body.getShort() & 0xFFFF];
+                    body.get(m);
+                    call.completeExceptionally(new ServerException(address + ": " + new String(m, StandardCharsets.UTF_8)));
+                }
+            }
+        }
+
+        // Fails everything in flight; the pool replaces this connection on the next request.
+        private void fail(IOException cause) {
+            failed = true;
+            try {
+                Socket s = socket;
+                if (s != null) s.close();
+            } catch (IOException ignored) {
+            }
+            for (var call : pending.values()) call.completeExceptionally(cause);
+        }
+
+        void close() {
+            fail(new IOException("client for " + address + " closed"));
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package miron.gaskov.client;
+
+import miron.gaskov.common.KeyType;
+
+import java.util.Objects;
+
+// requestTimeoutMillis counts one attempt, 0 waits forever; keyType null leaves the choice to the server,
+// tenant null lets the server schedule this client by its address.
+public record KeyClientOptions(String host, int port, int connections, int connectTimeoutMillis,
+                               int requestTimeoutMillis, int retries, long backoffBaseMillis, long backoffCapMillis,
+                               KeyType keyType, boolean der, String tenant) {
+
+    public KeyClientOptions {
+        Objects.requireNonNull(host);
+        if (connections <= 0) throw new IllegalArgumentException("Need at least one connection");
+        if (retries < 0 || connectTimeoutMillis < 0 || requestTimeoutMillis < 0)
+            throw new IllegalArgumentException("Negative retries or timeout");
+    }
+
+    public static KeyClientOptions of(String host, int port) {
+        return new KeyClientOptions(host, port, 4, 10_000, 30_000, 3, 200, 10_000, null, false, null);
+    }
+
+    public KeyClientOptions withConnections(int connections) {
+        return new KeyClientOptions(host, port, connections, connectTimeoutMillis, requestTimeoutMillis, retries,
+                backoffBaseMillis, backoffCapMillis, keyType, der, tenant);
+    }
+
+    public KeyClientOptions withTimeouts(int connectTimeoutMillis, int requestTimeoutMillis) {
+        return new KeyClientOptions(host, port, connections, connectTimeoutMillis, requestTimeoutMillis, retries,
+                backoffBaseMillis, backoffCapMillis, keyType, der, tenant);
+    }
+
+    public KeyClientOptions withRetries(int retries, long backoffBaseMillis, long backoffCapMillis) {
+        return new KeyClientOptions(host, port, connections, connectTimeoutMillis, requestTimeoutMillis, retries,
+                backoffBaseMillis, backoffCapMillis, keyType, der, tenant);
+    }
+
+    public KeyClientOptions withFormat(KeyType keyType, boolean der) {
+        return new KeyClientOptions(host, port, connections, connectTimeoutMillis, requestTimeoutMillis, retries,
+                backoffBaseMillis, backoffCapMillis, keyType, der, tenant);
+    }
+
+    public KeyClientOptions withTenant(String tenant) {
+        return new KeyClientOptions(host, port, connections, connectTimeoutMillis, requestTimeoutMillis, retries,
+                backoffBaseMillis, backoffCapMillis, keyType, der, tenant);
+    }
+}
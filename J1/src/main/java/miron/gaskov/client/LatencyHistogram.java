@@ -0,0 +1,61 @@
+package miron.gaskov.client;
+
+/*
+ * Log-linear buckets in the style of HdrHistogram: values below 2 * HALF are exact, above that every power of
+ * two is split into HALF buckets, so any recorded value is reported within 1 / HALF of its true value.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BITS = 7;
+    private static final int HALF = 1 << (SUB_BITS - 1);
+    private static final int MAX_SHIFT = 63 - SUB_BITS;
+
+    private final long[] counts = new long[(MAX_SHIFT + 2) * HALF];
+    private long total = 0;
+    private long sum = 0;
+    private long max = 0;
+
+    void record(long value) {
+        if (value < 0) value = 0;
+        counts[index(value)]++;
+        total++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    long count() {
+        return total;
+    }
+
+    long max() {
+        return max;
+    }
+
+    double mean() {
+        return total == 0 ? 0 : (double) sum / total;
+    }
+
+    // Highest value equivalent to the bucket holding the given percentile, as HdrHistogram reports it.
+    long percentile(double p) {
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(max, highestEquivalent(i));
+        }
+        return max;
+    }
+
+    private static int index(long value) {
+        if (value < 2 * HALF) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    private static long highestEquivalent(int index) {
+        if (index < 2 * HALF) return index;
+        int shift = index / HALF - 1;
+        long mantissa = index - (long) shift * HALF;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,372 @@
+package miron.gaskov.client;
+
+import miron.gaskov.common.Protocol;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Drives the server from one selector thread. Without --rate it keeps --concurrency requests in flight
+ * (closed loop); with --rate it schedules arrivals at that rate and measures latency from the intended start,
+ * so a stalled server shows up as latency instead of silently lowering the offered load.
+ *
+ * --idle holds that many extra connections open and silent for the whole run, to see what a crowd of idle
+ * clients costs the engine under test.
+ */
+public final class LoadMain {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long SCAN_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final LoadOptions opts;
+    private final InetSocketAddress address;
+    private final Selector selector;
+    private final boolean framed;
+    private final ByteBuffer scratch = ByteBuffer.allocateDirect(64 * 1024);
+    private final String runId = Long.toHexString(ThreadLocalRandom.current().nextLong() & 0xFFFFFFFFL);
+
+    private final Set<Conn> active = new HashSet<>();
+    private final ArrayDeque<Conn> idle = new ArrayDeque<>();
+    private final PriorityQueue<Conn> sleeping = new PriorityQueue<>(Comparator.comparingLong(c -> c.wakeAt));
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final TreeMap<String, Long> errors = new TreeMap<>();
+    private long ok = 0;
+    private long aborted = 0;
+    private long fresh = 0;
+
+    private LoadMain(LoadOptions opts) throws IOException {
+        this.opts = opts;
+        this.address = new InetSocketAddress(opts.host(), opts.port());
+        this.selector = Selector.open();
+        this.framed = opts.protocol() >= 2;
+    }
+
+    public static void main(String[] args) throws IOException {
+        var load = new LoadMain(LoadOptions.parse(args));
+        var idle = load.openIdle();
+        try {
+            long elapsed = load.run();
+            load.report(elapsed);
+        } finally {
+            for (SocketChannel ch : idle) ch.close();
+        }
+    }
+
+    private List<SocketChannel> openIdle() throws IOException {
+        var idle = new ArrayList<SocketChannel>(opts.idleConnections());
+        for (int i = 0; i < opts.idleConnections(); i++) idle.add(SocketChannel.open(address));
+        if (!idle.isEmpty()) System.out.println("Holding " + idle.size() + " idle connections");
+        return idle;
+    }
+
+    private long run() throws IOException {
+        long start = System.nanoTime();
+        long end = start + opts.durationSec() * SECOND;
+        long interval = opts.rate() > 0 ? (long) (SECOND / opts.rate()) : 0;
+        long nextArrival = start;
+        long nextReport = start + SECOND;
+        long nextScan = start + SCAN_INTERVAL;
+        long lastOk = 0;
+
+        System.out.println("Load: " + (interval > 0 ? opts.rate() + " req/s, " : "closed loop, ") +
+                opts.concurrency() + " max in flight, " + opts.durationSec() + " s, protocol v" + (framed ? 2 : 1) +
+                " against " + address);
+        while (true) {
+            long now = System.nanoTime();
+            if (now < end) {
+                if (interval == 0) {
+                    while (active.size() < opts.concurrency() && begin(now)) ;
+                } else {
+                    while (nextArrival <= now && active.size() < opts.concurrency() && begin(nextArrival))
+                        nextArrival += interval;
+                }
+            } else if (active.isEmpty()) {
+                return now - start;
+            }
+
+            while (!sleeping.isEmpty() && sleeping.peek().wakeAt <= now) {
+                Conn c = sleeping.poll();
+                if (active.contains(c) && c.key.isValid()) c.key.interestOps(SelectionKey.OP_READ);
+            }
+            if (now >= nextScan) {
+                expire(now);
+                nextScan = now + SCAN_INTERVAL;
+            }
+            if (now >= nextReport) {
+                System.out.printf("[%4ds] ok=%d (%d/s) errors=%d in flight=%d%n", (now - start) / SECOND, ok,
+                        ok - lastOk, errorCount(), active.size());
+                lastOk = ok;
+                nextReport += SECOND;
+            }
+
+            long wake = Math.min(nextReport, nextScan);
+            if (interval > 0 && now < end) wake = Math.min(wake, nextArrival);
+            if (!sleeping.isEmpty()) wake = Math.min(wake, sleeping.peek().wakeAt);
+            selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wake - now)));
+
+            var it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                if (key.isValid()) handle(key);
+            }
+        }
+    }
+
+    private boolean begin(long startedAt) {
+        var rnd = ThreadLocalRandom.current();
+        String name = rnd.nextDouble() < opts.repeatRatio()
+                ? opts.prefix() + "-hot-" + rnd.nextInt(opts.hotNames())
+                : opts.prefix() + "-" + runId + "-" + fresh++;
+        Conn c = framed ? idle.poll() : null;
+        try {
+            if (c == null) c = open();
+        } catch (IOException e) {
+            error("connect");
+            return false;
+        }
+        c.startedAt = startedAt;
+        c.abort = rnd.nextDouble() < opts.abortRatio();
+        c.slow = rnd.nextDouble() < opts.slowRatio();
+        c.outcome = null;
+        c.out = framed ? c.request(Protocol.get(c.nextId++, name, opts.keyType())) : c.request(legacyRequest(name));
+        if (c.connected) c.key.interestOps(SelectionKey.OP_WRITE);
+        active.add(c);
+        return true;
+    }
+
+    private Conn open() throws IOException {
+        SocketChannel ch = SocketChannel.open();
+        ch.configureBlocking(false);
+        ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        var c = new Conn(ch);
+        c.connected = ch.connect(address);
+        c.key = ch.register(selector, c.connected ? 0 : SelectionKey.OP_CONNECT, c);
+        if (framed) expect(c, Stage.HELLO, 2, 0);
+        else expect(c, Stage.KEY_LEN, 4, 0);
+        return c;
+    }
+
+    private static ByteBuffer legacyRequest(String name) {
+        byte[] n = name.getBytes(StandardCharsets.US_ASCII);
+        return ByteBuffer.allocate(n.length + 1).put(n).put((byte) 0).flip();
+    }
+
+    private void handle(SelectionKey key) {
+        Conn c = (Conn) key.attachment();
+        if (!active.contains(c)) {
+            // An idle pooled connection became readable: the server closed it.
+            idle.remove(c);
+            close(c);
+            return;
+        }
+        try {
+            if (key.isConnectable()) {
+                c.ch.finishConnect();
+                c.connected = true;
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            if (key.isWritable()) {
+                c.ch.write(c.out);
+                if (!c.out.hasRemaining()) sent(c);
+            }
+            if (key.isValid() && key.isReadable()) read(c);
+        } catch (IOException e) {
+            fail(c, c.connected ? "io" : "connect");
+        }
+    }
+
+    private void sent(Conn c) {
+        if (c.abort) {
+            aborted++;
+            active.remove(c);
+            close(c);
+            return;
+        }
+        if (c.slow) {
+            c.key.interestOps(0);
+            c.wakeAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(opts.slowMillis());
+            sleeping.add(c);
+            return;
+        }
+        c.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void read(Conn c) throws IOException {
+        while (true) {
+            if (c.skip == 0 && !c.header.hasRemaining()) {
+                if (!advance(c)) return;
+                continue;
+            }
+            int n;
+            if (c.skip > 0) {
+                scratch.clear().limit((int) Math.min(scratch.capacity(), c.skip));
+                n = c.ch.read(scratch);
+                if (n > 0) c.skip -= n;
+            } else {
+                n = c.ch.read(c.header);
+            }
+            if (n < 0) {
+                fail(c, "closed");
+                return;
+            }
+            if (n == 0) return;
+        }
+    }
+
+    private boolean advance(Conn c) {
+        ByteBuffer h = c.header.flip();
+        switch (c.stage) {
+            case HELLO -> {
+                if (h.get() != Protocol.MAGIC || h.get() != Protocol.VERSION) {
+                    fail(c, "protocol");
+                    return false;
+                }
+                expect(c, Stage.HEADER, Protocol.RESPONSE_HEADER, 0);
+            }
+            case HEADER -> {
+                int len = h.getInt();
+                h.get();
+                h.getInt();
+                byte status = h.get();
+                if (status == Protocol.STATUS_OVERLOADED) c.outcome = "overloaded";
+                else if (status != Protocol.STATUS_OK) c.outcome = "error";
+                expect(c, Stage.DONE, 0, len - (Protocol.RESPONSE_HEADER - 4));
+            }
+            case KEY_LEN -> {
+                int len = h.getInt();
+                if (len <= 0) {
+                    c.outcome = len == Protocol.LEGACY_OVERLOADED ? "overloaded" : "error";
+                    complete(c);
+                    return false;
+                }
+                expect(c, Stage.CRT_LEN, 4, len);
+            }
+            case CRT_LEN -> {
+                int len = h.getInt();
+                if (len <= 0) {
+                    c.outcome = "error";
+                    complete(c);
+                    return false;
+                }
+                expect(c, Stage.DONE, 0, len);
+            }
+            case DONE -> {
+                complete(c);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void expect(Conn c, Stage stage, int headerBytes, long skip) {
+        c.stage = stage;
+        c.header.clear().limit(headerBytes);
+        c.skip = skip;
+    }
+
+    private void complete(Conn c) {
+        active.remove(c);
+        if (c.outcome == null) {
+            ok++;
+            latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - c.startedAt));
+        } else {
+            error(c.outcome);
+        }
+        if (!framed) {
+            close(c);
+            return;
+        }
+        expect(c, Stage.HEADER, Protocol.RESPONSE_HEADER, 0);
+        c.key.interestOps(SelectionKey.OP_READ);
+        idle.add(c);
+    }
+
+    private void expire(long now) {
+        long timeout = TimeUnit.MILLISECONDS.toNanos(opts.timeoutMillis());
+        var late = new ArrayList<Conn>();
+        for (Conn c : active) if (now - c.startedAt > timeout) late.add(c);
+        for (Conn c : late) fail(c, "timeout");
+    }
+
+    private void fail(Conn c, String type) {
+        error(type);
+        active.remove(c);
+        close(c);
+    }
+
+    private void error(String type) {
+        errors.merge(type, 1L, Long::sum);
+    }
+
+    private long errorCount() {
+        return errors.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    private static void close(Conn c) {
+        c.key.cancel();
+        try {
+            c.ch.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void report(long elapsedNanos) {
+        double seconds = elapsedNanos / (double) SECOND;
+        System.out.printf("Requests: %d ok, %d errors, %d aborted in %.1f s (%.1f ok/s)%n",
+                ok, errorCount(), aborted, seconds, ok / seconds);
+        System.out.printf("Latency ms: p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f mean=%.3f%n",
+                latency.percentile(50) / 1000.0, latency.percentile(90) / 1000.0, latency.percentile(99) / 1000.0,
+                latency.percentile(99.9) / 1000.0, latency.max() / 1000.0, latency.mean() / 1000.0);
+        if (!errors.isEmpty()) System.out.println("Errors: " + errors);
+    }
+
+    private enum Stage {HELLO, HEADER, KEY_LEN, CRT_LEN, DONE}
+
+    private static final class Conn {
+        final SocketChannel ch;
+        final ByteBuffer header = ByteBuffer.allocate(Protocol.RESPONSE_HEADER);
+        SelectionKey key;
+        boolean connected;
+        boolean greeted;
+        int nextId = 0;
+
+        long startedAt;
+        boolean abort;
+        boolean slow;
+        long wakeAt;
+        ByteBuffer out;
+        Stage stage;
+        long skip;
+        String outcome;
+
+        Conn(SocketChannel ch) {
+            this.ch = ch;
+        }
+
+        // The first request on a framed connection carries the protocol hello in front of it.
+        ByteBuffer request(ByteBuffer body) {
+            if (greeted || stage != Stage.HELLO) return body;
+            greeted = true;
+            ByteBuffer hello = Protocol.hello();
+            return ByteBuffer.allocate(hello.remaining() + body.remaining()).put(hello).put(body).flip();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package miron.gaskov.client;
+
+import miron.gaskov.common.KeyType;
+
+record LoadOptions(String host, int port, int protocol, int concurrency, double rate, int durationSec,
+                   int hotNames, double repeatRatio, double abortRatio, double slowRatio, int slowMillis,
+                   int timeoutMillis, String prefix, KeyType keyType, int idleConnections) {
+    static LoadOptions parse(String[] args) {
+        String host = "127.0.0.1";
+        int port = 9999;
+        int protocol = 2;
+        int concurrency = 100;
+        double rate = 0;
+        int duration = 10;
+        int hotNames = 1000;
+        double repeat = 0.5;
+        double abort = 0;
+        double slow = 0;
+        int slowMillis = 1000;
+        int timeoutMillis = 30_000;
+        String prefix = "load";
+        KeyType keyType = null;
+        int idle = 0;
+
+        for (int i = 0; i < args.length; i += 2) {
+            String v = (i + 1 < args.length) ? args[i + 1] : "";
+            switch (args[i]) {
+                case "--host" -> host = v;
+                case "--port" -> port = Integer.parseInt(v);
+                case "--protocol" -> protocol = Integer.parseInt(v);
+                case "--concurrency" -> concurrency = Integer.parseInt(v);
+                case "--rate" -> rate = Double.parseDouble(v);
+                case "--duration" -> duration = Integer.parseInt(v);
+                case "--hot-names" -> hotNames = Integer.parseInt(v);
+                case "--repeat" -> repeat = Double.parseDouble(v);
+                case "--abort" -> abort = Double.parseDouble(v);
+                case "--slow" -> slow = Double.parseDouble(v);
+                case "--slow-ms" -> slowMillis = Integer.parseInt(v);
+                case "--timeout-ms" -> timeoutMillis = Integer.parseInt(v);
+                case "--prefix" -> prefix = v;
+                case "--key-type" -> keyType = KeyType.parse(v);
+                case "--idle" -> idle = Integer.parseInt(v);
+            }
+        }
+        if (concurrency < 1) throw new IllegalArgumentException("Concurrency must be positive: " + concurrency);
+        if (hotNames < 1) hotNames = 1;
+        if (keyType != null) protocol = Math.max(protocol, 2);
+        return new LoadOptions(host, port, protocol, concurrency, rate, duration, hotNames, repeat, abort, slow,
+                slowMillis, timeoutMillis, prefix, keyType, Math.max(0, idle));
+    }
+}
@@ -0,0 +1,71 @@
+package miron.gaskov.common;
+
+import java.util.Locale;
+
+/*
+ * Key types a client may ask for in the keyType byte of GET and BATCH requests; 0 means the server default.
+ * digestBits is the hash strength a certificate for such a key should be signed with.
+ */
+public enum KeyType {
+    RSA_2048(1, "RSA", 2048, null, 256),
+    RSA_4096(2, "RSA", 4096, null, 384),
+    RSA_8192(3, "RSA", 8192, null, 512),
+    EC_P256(4, "EC", 256, "secp256r1", 256),
+    EC_P384(5, "EC", 384, "secp384r1", 384),
+    ED25519(6, "Ed25519", 255, null, 256);
+
+    private final byte code;
+    private final String algorithm;
+    private final int bits;
+    private final String curve;
+    private final int digestBits;
+
+    KeyType(int code, String algorithm, int bits, String curve, int digestBits) {
+        this.code = (byte) code;
+        this.algorithm = algorithm;
+        this.bits = bits;
+        this.curve = curve;
+        this.digestBits = digestBits;
+    }
+
+    public byte code() {
+        return code;
+    }
+
+    public String algorithm() {
+        return algorithm;
+    }
+
+    public int bits() {
+        return bits;
+    }
+
+    public String curve() {
+        return curve;
+    }
+
+    public int digestBits() {
+        return digestBits;
+    }
+
+    // rsa-2048, ec-p256, ed25519, ...
+    public String label() {
+        return name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+
+    public static KeyType fromCode(byte code) {
+        for (KeyType t : values()) if (t.code == code) return t;
+        throw new IllegalArgumentException("unknown key type " + code);
+    }
+
+    public static KeyType parse(String s) {
+        String label = s.trim().toLowerCase(Locale.ROOT).replace('_', '-');
+        for (KeyType t : values()) if (t.label().equals(label)) return t;
+        throw new IllegalArgumentException("Unknown key type: " + s);
+    }
+
+    public static KeyType rsa(int bits) {
+        for (KeyType t : values()) if (t.algorithm.equals("RSA") && t.bits == bits) return t;
+        throw new IllegalArgumentException("Unsupported RSA key size: " + bits + " (expected 2048, 4096 or 8192)");
+    }
+}
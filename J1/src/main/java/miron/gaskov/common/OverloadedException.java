@@ -0,0 +1,14 @@
+package miron.gaskov.common;
+
+public final class OverloadedException extends RuntimeException {
+    private final int retryAfterMillis;
+
+    public OverloadedException(String message, int retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public int retryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -12,4 +12,22 @@ public final class Pem {
         String pem = "-----BEGIN " + type + "-----\n" + base64 + "\n-----END " + type + "-----\n";
         return pem.getBytes(StandardCharsets.US_ASCII);
     }
-}
\ No newline at end of file
+
+    // Exact length of encode(type, der) for a DER body of derLength bytes.
+    public static int encodedLength(String type, int derLength) {
+        int base64 = (derLength + 2) / 3 * 4;
+        int lines = (base64 + 63) / 64;
+        int armour = ("-----BEGIN " + type + "-----\n").length() + 1 + ("-----END " + type + "-----\n").length();
+        return armour + base64 + Math.max(0, lines - 1);
+    }
+
+    // Body of the first PEM block in pem.
+    public static byte[] decode(byte[] pem) {
+        String s = new String(pem, StandardCharsets.US_ASCII);
+        int begin = s.indexOf("-----BEGIN ");
+        int start = begin < 0 ? -1 : s.indexOf('\n', begin) + 1;
+        int stop = start <= 0 ? -1 : s.indexOf("-----END ", start);
+        if (stop < 0) throw new IllegalArgumentException("Not PEM");
+        return Base64.getMimeDecoder().decode(s.substring(start, stop));
+    }
+}
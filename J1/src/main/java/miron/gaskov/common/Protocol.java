@@ -0,0 +1,205 @@
+package miron.gaskov.common;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Legacy (v1): client sends "name\0", server answers [int len][key pem][int len][cert pem] and closes.
+ * An overloaded server answers [int LEGACY_OVERLOADED][int retryAfterMillis] instead; older clients see
+ * a non-positive length and fail as they do for any other error.
+ *
+ * Framed (v2): client opens with MAGIC VERSION, server acknowledges with the same two bytes, then both
+ * sides exchange frames until the client closes:
+ *   request  [int length][byte type][int requestId][body]
+ *   response [int length][byte type][int requestId][byte status][body]
+ * length counts the bytes that follow it. Responses may arrive in any order.
+ *
+ * A BATCH request is answered with one ITEM frame per name as soon as it is ready, followed by a single
+ * SUMMARY frame once every item has been sent.
+ */
+public final class Protocol {
+    public static final byte MAGIC = (byte) 0xFF;
+    public static final byte VERSION = 2;
+
+    public static final byte GET = 1;
+    public static final byte BATCH = 2;
+
+    public static final byte RESULT = 1;
+    public static final byte ITEM = 2;
+    public static final byte SUMMARY = 3;
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_ERROR = 1;
+    public static final byte STATUS_OVERLOADED = 2;
+
+    public static final int LEGACY_OVERLOADED = -1;
+
+    // Request flag set by a cluster node relaying to the name's owner; the receiver must not forward again.
+    public static final byte FLAG_FORWARDED = 0x01;
+    // Request flag asking for the key (PKCS#8) and certificate as raw DER instead of PEM, same framing.
+    public static final byte FLAG_DER = 0x02;
+    // Request flag declaring the tenant the work is scheduled for: [short length][tenant UTF-8] follows keyType.
+    public static final byte FLAG_TENANT = 0x04;
+
+    public static final int REQUEST_HEADER = 4 + 1 + 4;
+    public static final int RESPONSE_HEADER = 4 + 1 + 4 + 1;
+    public static final int MAX_NAME = 1024;
+    public static final int MAX_TENANT = 64;
+    public static final int MAX_REQUEST = 1024 * 1024;
+    // Longest GET frame after its length prefix: type, id, flags, keyType, tenant and name.
+    public static final int MAX_GET = 1 + 4 + 1 + 1 + 2 + MAX_TENANT + 2 + MAX_NAME;
+    public static final int MAX_BATCH = 8192;
+    // Room left for [short nameLength][name] entries in a BATCH frame, whatever its tenant.
+    public static final int MAX_BATCH_NAME_BYTES = MAX_REQUEST - (1 + 4 + 1 + 1 + 2 + MAX_TENANT + 4);
+
+    private Protocol() {
+    }
+
+    public static ByteBuffer hello() {
+        return ByteBuffer.wrap(new byte[]{MAGIC, VERSION});
+    }
+
+    // GET body: [byte flags][byte keyType][short nameLength][name UTF-8]; flags and keyType 0 = server defaults.
+    // With FLAG_TENANT, [short tenantLength][tenant UTF-8] sits between keyType and the name(s), in BATCH too.
+    public static ByteBuffer get(int requestId, String name) {
+        return get(requestId, name, null);
+    }
+
+    public static ByteBuffer get(int requestId, String name, KeyType keyType) {
+        return get(requestId, name, keyType, (byte) 0);
+    }
+
+    public static ByteBuffer get(int requestId, String name, KeyType keyType, byte flags) {
+        return get(requestId, name, keyType, flags, null);
+    }
+
+    // A non-null tenant sets FLAG_TENANT.
+    public static ByteBuffer get(int requestId, String name, KeyType keyType, byte flags, String tenant) {
+        byte[] n = name.getBytes(StandardCharsets.UTF_8);
+        if (n.length == 0 || n.length > MAX_NAME) throw new IllegalArgumentException("Bad name length: " + n.length);
+        byte[] t = tenant(tenant);
+        ByteBuffer b = ByteBuffer.allocate(REQUEST_HEADER + 4 + tenantBytes(t) + n.length);
+        b.putInt(b.capacity() - 4).put(GET).putInt(requestId);
+        putOptions(b, flags, keyType, t);
+        b.putShort((short) n.length).put(n);
+        return b.flip();
+    }
+
+    // BATCH body: [byte flags][byte keyType][int count] then count x ([short nameLength][name UTF-8])
+    public static ByteBuffer batch(int requestId, List<String> names) {
+        return batch(requestId, names, null);
+    }
+
+    public static ByteBuffer batch(int requestId, List<String> names, KeyType keyType) {
+        return batch(requestId, names, keyType, (byte) 0);
+    }
+
+    public static ByteBuffer batch(int requestId, List<String> names, KeyType keyType, byte flags) {
+        return batch(requestId, names, keyType, flags, null);
+    }
+
+    public static ByteBuffer batch(int requestId, List<String> names, KeyType keyType, byte flags, String tenant) {
+        if (names.isEmpty() || names.size() > MAX_BATCH) throw new IllegalArgumentException("Bad batch size: " + names.size());
+        var encoded = new ArrayList<byte[]>(names.size());
+        byte[] t = tenant(tenant);
+        int size = REQUEST_HEADER + 2 + tenantBytes(t) + 4;
+        for (String name : names) {
+            byte[] n = name.getBytes(StandardCharsets.UTF_8);
+            if (n.length == 0 || n.length > MAX_NAME) throw new IllegalArgumentException("Bad name length: " + n.length);
+            encoded.add(n);
+            size += 2 + n.length;
+        }
+        if (size - 4 > MAX_REQUEST) throw new IllegalArgumentException("Batch too large: " + size + " B");
+        ByteBuffer b = ByteBuffer.allocate(size);
+        b.putInt(size - 4).put(BATCH).putInt(requestId);
+        putOptions(b, flags, keyType, t);
+        b.putInt(names.size());
+        for (byte[] n : encoded) b.putShort((short) n.length).put(n);
+        return b.flip();
+    }
+
+    private static byte code(KeyType keyType) {
+        return keyType != null ? keyType.code() : 0;
+    }
+
+    private static byte[] tenant(String tenant) {
+        if (tenant == null) return null;
+        byte[] t = tenant.getBytes(StandardCharsets.UTF_8);
+        if (t.length == 0 || t.length > MAX_TENANT) throw new IllegalArgumentException("Bad tenant length: " + t.length);
+        return t;
+    }
+
+    private static int tenantBytes(byte[] tenant) {
+        return tenant != null ? 2 + tenant.length : 0;
+    }
+
+    private static void putOptions(ByteBuffer b, byte flags, KeyType keyType, byte[] tenant) {
+        if (tenant == null) {
+            b.put((byte) (flags & ~FLAG_TENANT)).put(code(keyType));
+        } else {
+            b.put((byte) (flags | FLAG_TENANT)).put(code(keyType)).putShort((short) tenant.length).put(tenant);
+        }
+    }
+
+    public static ByteBuffer resultHeader(int requestId, byte status, int bodyLength) {
+        ByteBuffer b = ByteBuffer.allocate(RESPONSE_HEADER);
+        b.putInt(RESPONSE_HEADER - 4 + bodyLength).put(RESULT).putInt(requestId).put(status);
+        return b.flip();
+    }
+
+    // ITEM body: [int index] then the same payload a RESULT frame would carry
+    public static ByteBuffer itemHeader(int requestId, byte status, int index, int bodyLength) {
+        ByteBuffer b = ByteBuffer.allocate(RESPONSE_HEADER + 4);
+        b.putInt(b.capacity() - 4 + bodyLength).put(ITEM).putInt(requestId).put(status).putInt(index);
+        return b.flip();
+    }
+
+    // Error body: [short length][message UTF-8]
+    public static ByteBuffer error(int requestId, String message) {
+        return error(RESULT, requestId, -1, message);
+    }
+
+    public static ByteBuffer itemError(int requestId, int index, String message) {
+        return error(ITEM, requestId, index, message);
+    }
+
+    private static ByteBuffer error(byte type, int requestId, int index, String message) {
+        byte[] m = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+        int len = Math.min(m.length, Short.MAX_VALUE);
+        int indexBytes = type == ITEM ? 4 : 0;
+        ByteBuffer b = ByteBuffer.allocate(RESPONSE_HEADER + indexBytes + 2 + len);
+        b.putInt(b.capacity() - 4).put(type).putInt(requestId).put(STATUS_ERROR);
+        if (type == ITEM) b.putInt(index);
+        b.putShort((short) len).put(m, 0, len);
+        return b.flip();
+    }
+
+    // Overloaded body: [int retryAfterMillis]
+    public static ByteBuffer overloaded(int requestId, int retryAfterMillis) {
+        ByteBuffer b = ByteBuffer.allocate(RESPONSE_HEADER + 4);
+        b.putInt(b.capacity() - 4).put(RESULT).putInt(requestId).put(STATUS_OVERLOADED).putInt(retryAfterMillis);
+        return b.flip();
+    }
+
+    public static ByteBuffer itemOverloaded(int requestId, int index, int retryAfterMillis) {
+        ByteBuffer b = ByteBuffer.allocate(RESPONSE_HEADER + 8);
+        b.putInt(b.capacity() - 4).put(ITEM).putInt(requestId).put(STATUS_OVERLOADED);
+        b.putInt(index).putInt(retryAfterMillis);
+        return b.flip();
+    }
+
+    public static ByteBuffer legacyOverloaded(int retryAfterMillis) {
+        return ByteBuffer.allocate(8).putInt(LEGACY_OVERLOADED).putInt(retryAfterMillis).flip();
+    }
+
+    // SUMMARY body: [int succeeded][int failed] then failed x [int index]
+    public static ByteBuffer summary(int requestId, int succeeded, int[] failed) {
+        ByteBuffer b = ByteBuffer.allocate(RESPONSE_HEADER + 8 + 4 * failed.length);
+        b.putInt(b.capacity() - 4).put(SUMMARY).putInt(requestId).put(STATUS_OK);
+        b.putInt(succeeded).putInt(failed.length);
+        for (int index : failed) b.putInt(index);
+        return b.flip();
+    }
+}
@@ -0,0 +1,62 @@
+package miron.gaskov.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/*
+ * Fixed-size direct buffers carved out of larger slabs. Slabs are allocated on demand up to maxBytes and never
+ * freed, so native memory stays bounded no matter how fast connections churn. Once the cap is reached callers
+ * get a heap buffer instead; release() ignores buffers that did not come from a slab.
+ */
+final class BufferPool {
+    private static final int SLAB_BUFFERS = 64;
+
+    private final int bufferSize;
+    private final long maxBytes;
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    private long allocatedBytes = 0;
+    private int inUse = 0;
+    private long acquired = 0;
+    private long fallbacks = 0;
+
+    BufferPool(int bufferSize, long maxBytes) {
+        if (bufferSize <= 0) throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+        this.bufferSize = bufferSize;
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    synchronized ByteBuffer acquire() {
+        acquired++;
+        if (free.isEmpty()) allocateSlab();
+        ByteBuffer b = free.pollLast();
+        if (b == null) {
+            fallbacks++;
+            return ByteBuffer.allocate(bufferSize);
+        }
+        inUse++;
+        return b.clear();
+    }
+
+    synchronized void release(ByteBuffer b) {
+        if (!b.isDirect() || b.capacity() != bufferSize) return;
+        inUse--;
+        free.addLast(b);
+    }
+
+    synchronized Stats stats() {
+        return new Stats(bufferSize, allocatedBytes, maxBytes, inUse, free.size(), acquired, fallbacks);
+    }
+
+    private void allocateSlab() {
+        long room = (maxBytes - allocatedBytes) / bufferSize;
+        int count = (int) Math.min(SLAB_BUFFERS, room);
+        if (count <= 0) return;
+        ByteBuffer slab = ByteBuffer.allocateDirect(count * bufferSize);
+        for (int i = 0; i < count; i++) free.addLast(slab.slice(i * bufferSize, bufferSize));
+        allocatedBytes += (long) count * bufferSize;
+    }
+
+    record Stats(int bufferSize, long allocatedBytes, long maxBytes, int inUse, int free, long acquired,
+                 long fallbacks) {
+    }
+}
@@ -0,0 +1,15 @@
+package miron.gaskov.server;
+
+// Per-phase session deadlines in milliseconds; 0 disables a phase's deadline.
+public record Deadlines(long readMillis, long generationMillis, long writeMillis) {
+    public static final Deadlines NONE = new Deadlines(0, 0, 0);
+
+    long millis(Session.Phase phase) {
+        return switch (phase) {
+            case READ -> readMillis;
+            case GENERATION -> generationMillis;
+            case WRITE -> writeMillis;
+            case NONE -> 0;
+        };
+    }
+}
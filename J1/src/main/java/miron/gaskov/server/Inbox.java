@@ -0,0 +1,98 @@
+package miron.gaskov.server;
+
+import miron.gaskov.server.metrics.Metrics;
+
+import java.nio.channels.Selector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * Events for one reactor thread, posted from any thread. A bounded multi-producer ring: producers claim a slot
+ * with a CAS on tail and publish into it, the reactor consumes in order from head. The selector is woken only
+ * when the inbox goes from empty to non-empty, and never by the reactor itself, which drains before it selects
+ * again. When the ring is full events spill into an unbounded queue rather than blocking a producer that may be
+ * the reactor.
+ */
+final class Inbox {
+    private final Selector selector;
+    private final Metrics metrics;
+    private final AtomicReferenceArray<Runnable> ring;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+    private final AtomicInteger size = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Runnable> overflow = new ConcurrentLinkedQueue<>();
+    private volatile Thread owner;
+
+    Inbox(Selector selector, Metrics metrics, int capacity) {
+        if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("Capacity must be a power of two");
+        this.selector = selector;
+        this.metrics = metrics;
+        this.ring = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    void post(Runnable r) {
+        if (!offer(r)) {
+            overflow.add(r);
+            metrics.inboxOverflow();
+        }
+        metrics.inboxPost();
+        if (size.getAndIncrement() == 0 && Thread.currentThread() != owner) {
+            metrics.wakeup();
+            selector.wakeup();
+        }
+    }
+
+    boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    // Runs what is queued now, in posting order within the ring; events posted while draining wait for next time.
+    int drain() {
+        owner = Thread.currentThread();
+        int queued = size.get();
+        for (int i = 0; i < queued; i++) {
+            Runnable r = take();
+            try {
+                r.run();
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+        }
+        size.addAndGet(-queued);
+        return queued;
+    }
+
+    private boolean offer(Runnable r) {
+        while (true) {
+            long t = tail.get();
+            if (t - head >= ring.length()) return false;
+            if (tail.compareAndSet(t, t + 1)) {
+                ring.set((int) (t & mask), r);
+                return true;
+            }
+        }
+    }
+
+    // A counted event is either in the overflow queue or in a ring slot that its producer is about to publish.
+    private Runnable take() {
+        while (true) {
+            long h = head;
+            if (h != tail.get()) {
+                int slot = (int) (h & mask);
+                Runnable r = ring.get(slot);
+                if (r != null) {
+                    ring.set(slot, null);
+                    head = h + 1;
+                    return r;
+                }
+            }
+            Runnable r = overflow.poll();
+            if (r != null) return r;
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package miron.gaskov.server;
+
+import miron.gaskov.common.KeyType;
+import miron.gaskov.common.Protocol;
+import miron.gaskov.server.generation.FramedMaterial;
+import miron.gaskov.server.generation.GenerationService;
+import miron.gaskov.server.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+final class Reactor implements Runnable {
+    private static final int MAX_GATHER = 16;
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int WHEEL_SLOTS = 1024;
+    private static final int INBOX_CAPACITY = 4096;
+
+    private final int id;
+    private final GenerationService generation;
+    private final Metrics metrics;
+    private final Replies replies;
+    private final BufferPool buffers;
+    private final Deadlines deadlines;
+    private final TimerWheel<SelectionKey> wheel = new TimerWheel<>(TICK_NANOS, WHEEL_SLOTS, System.nanoTime());
+
+    private final Selector selector;
+    private final Inbox inbox;
+    private final AtomicInteger sessions = new AtomicInteger();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private final Map<String, Session.Group> groups = new HashMap<>();
+    private boolean stopped = false;
+
+    Reactor(int id, GenerationService generation, Metrics metrics, BufferPool buffers, Deadlines deadlines)
+            throws IOException {
+        this.id = id;
+        this.generation = Objects.requireNonNull(generation);
+        this.metrics = Objects.requireNonNull(metrics);
+        this.replies = new Replies(metrics);
+        this.buffers = Objects.requireNonNull(buffers);
+        this.deadlines = Objects.requireNonNull(deadlines);
+        this.selector = Selector.open();
+        this.inbox = new Inbox(selector, metrics, INBOX_CAPACITY);
+    }
+
+    int id() {
+        return id;
+    }
+
+    int load() {
+        return sessions.get();
+    }
+
+    void register(SocketChannel ch) {
+        sessions.incrementAndGet();
+        metrics.sessionOpened();
+        inbox.post(() -> {
+            try {
+                var s = new Session();
+                s.client = Request.client(ch);
+                SelectionKey key = ch.register(selector, SelectionKey.OP_READ, s);
+                s.timer = new TimerWheel.Timer<>(key);
+                rearm(key, s);
+            } catch (IOException e) {
+                sessions.decrementAndGet();
+                metrics.sessionClosed();
+                try {
+                    ch.close();
+                } catch (IOException ignored) {
+                }
+            }
+        });
+    }
+
+    // Closes every session and ends the reactor thread; completions posted afterwards are never run.
+    void stop() {
+        inbox.post(() -> {
+            stopped = true;
+            for (SelectionKey key : List.copyOf(selector.keys())) close(key);
+        });
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                if (inbox.isEmpty()) selector.select(wheel.size() > 0 ? wheel.tickMillis() : 0);
+                else selector.selectNow();
+                inbox.drain();
+            } catch (IOException e) {
+                System.err.println("Reactor " + id + " select failed: " + e);
+                continue;
+            }
+            if (stopped) {
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+                return;
+            }
+
+            var it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                if (!key.isValid()) continue;
+                try {
+                    if (key.isReadable()) onRead(key);
+                    if (key.isValid() && key.isWritable()) onWrite(key);
+                } catch (IOException e) {
+                    close(key);
+                }
+            }
+            wheel.advance(System.nanoTime(), this::expire);
+        }
+    }
+
+    /*
+     * A session's deadline starts when it enters a phase and is not pushed back by progress within it, so a
+     * client trickling one byte at a time still runs out of time. Idle framed sessions sit in READ.
+     */
+    private void rearm(SelectionKey key, Session s) {
+        if (!key.isValid()) return;
+        Session.Phase phase = !s.out.isEmpty() ? Session.Phase.WRITE
+                : !s.waiting.isEmpty() ? Session.Phase.GENERATION
+                : s.inputClosed || s.nameDone ? Session.Phase.NONE
+                : Session.Phase.READ;
+        if (phase == s.phase) return;
+        s.phase = phase;
+        long millis = deadlines.millis(phase);
+        if (millis > 0) wheel.schedule(s.timer, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+        else wheel.cancel(s.timer);
+    }
+
+    private void expire(SelectionKey key) {
+        Session s = (Session) key.attachment();
+        switch (s.phase) {
+            case READ -> metrics.readTimeout();
+            case GENERATION -> metrics.generationTimeout();
+            case WRITE -> metrics.writeTimeout();
+            case NONE -> {
+            }
+        }
+        close(key);
+    }
+
+    private void onRead(SelectionKey key) throws IOException {
+        SocketChannel ch = (SocketChannel) key.channel();
+        Session s = (Session) key.attachment();
+        if (s.in == null) s.in = buffers.acquire();
+        int n = ch.read(s.in);
+        if (n == -1) {
+            onEndOfInput(key, s);
+            return;
+        }
+        if (n > 0) {
+            metrics.bytesIn(n);
+            s.in.flip();
+            if (s.mode == Session.Mode.UNKNOWN) detectMode(key, s);
+            if (s.mode == Session.Mode.LEGACY) readLegacy(key, s);
+            else if (s.mode == Session.Mode.FRAMED) readFrames(key, s);
+            if (!key.isValid()) return;
+            s.in.compact();
+        }
+        // Idle sessions hold no buffer; one is borrowed again on the next readable event.
+        if (s.in.position() == 0) releaseInput(s);
+        rearm(key, s);
+    }
+
+    private void releaseInput(Session s) {
+        if (s.in == null) return;
+        buffers.release(s.in);
+        s.in = null;
+    }
+
+    private void detectMode(SelectionKey key, Session s) {
+        ByteBuffer in = s.in;
+        if (in.get(in.position()) != Protocol.MAGIC) {
+            s.mode = Session.Mode.LEGACY;
+            return;
+        }
+        if (in.remaining() < 2) return;
+        in.get();
+        byte version = in.get();
+        s.mode = Session.Mode.FRAMED;
+        enqueue(key, s, Protocol.hello());
+        if (version != Protocol.VERSION) {
+            System.err.println("Unsupported protocol version " + version);
+            s.closeAfterFlush = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            in.position(in.limit());
+        }
+    }
+
+    private void readLegacy(SelectionKey key, Session s) {
+        ByteBuffer in = s.in;
+        while (in.hasRemaining() && !s.nameDone) {
+            int take = Math.min(in.remaining(), s.name.length - s.nameLength);
+            if (take > 0) {
+                int start = in.position();
+                in.get(s.name, s.nameLength, take);
+                int nul = indexOfNul(s.name, s.nameLength, s.nameLength + take);
+                if (nul < 0) {
+                    s.nameLength += take;
+                    continue;
+                }
+                in.position(start + (nul - s.nameLength) + 1);
+                s.nameLength = nul;
+            } else if (in.get() != 0) {
+                continue;
+            }
+
+            s.nameDone = true;
+            String name = Request.legacyName(s.name, s.nameLength);
+            if (name.isEmpty()) {
+                replyErrorAndClose(key, s, new IllegalArgumentException("empty name"));
+                break;
+            }
+            handleNameAsync(key, s, name);
+        }
+        if (s.nameDone) in.position(in.limit());
+    }
+
+    private static int indexOfNul(byte[] a, int from, int to) {
+        for (int i = from; i < to; i++) if (a[i] == 0) return i;
+        return -1;
+    }
+
+    private void readFrames(SelectionKey key, Session s) {
+        ByteBuffer in = s.in;
+        while (key.isValid() && !s.inputClosed && in.remaining() >= 5) {
+            int len = in.getInt(in.position());
+            if (len < Protocol.REQUEST_HEADER - 4 || len > Request.maxLength(in.get(in.position() + 4))) {
+                System.err.println("Error: bad frame length " + len);
+                close(key);
+                return;
+            }
+            if (in.remaining() < 4 + len) {
+                // Doubling only once the buffer is full, so memory follows the bytes received, not the prefix.
+                if (in.remaining() == in.capacity()) {
+                    ByteBuffer bigger = grow(in, Math.min(4 + len, 2 * in.capacity()));
+                    buffers.release(in);
+                    in = s.in = bigger;
+                }
+                break;
+            }
+            int end = in.position() + 4 + len;
+            in.getInt();
+            byte type = in.get();
+            int requestId = in.getInt();
+            ByteBuffer body = in.slice(in.position(), end - in.position());
+            in.position(end);
+            handleFrame(key, s, type, requestId, body);
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer in, int capacity) {
+        ByteBuffer bigger = ByteBuffer.allocate(capacity);
+        bigger.put(in).flip();
+        return bigger;
+    }
+
+    private void handleFrame(SelectionKey key, Session s, byte type, int requestId, ByteBuffer body) {
+        Request request;
+        try {
+            request = Request.decode(type, requestId, body);
+        } catch (IllegalArgumentException e) {
+            enqueue(key, s, Protocol.error(requestId, e.getMessage()));
+            return;
+        }
+        String tenant = request.tenantOr(s.client);
+        if (request.type() == Protocol.GET)
+            handleRequestAsync(key, s, requestId, request.names().get(0), request.keyType(), request.forwarded(),
+                    request.der(), tenant);
+        else handleBatchAsync(key, s, requestId, request.names(), request.keyType(), request.forwarded(),
+                    request.der(), tenant);
+    }
+
+    private void handleNameAsync(SelectionKey key, Session s, String name) {
+        metrics.request();
+        long start = System.nanoTime();
+        await(key, s, name, null, false, false, s.client, (material, ex) -> {
+            metrics.requests().recordSince(start);
+            if (ex != null) {
+                replyErrorAndClose(key, s, ex);
+            } else {
+                enqueueFrames(key, s, material);
+            }
+        });
+    }
+
+    private void handleRequestAsync(SelectionKey key, Session s, int requestId, String name, KeyType keyType,
+                                    boolean forwarded, boolean der, String tenant) {
+        metrics.request();
+        long start = System.nanoTime();
+        s.pending++;
+        await(key, s, name, keyType, forwarded, der, tenant, (material, ex) -> {
+            s.pending--;
+            metrics.requests().recordSince(start);
+            if (ex != null) {
+                enqueue(key, s, replies.failure(requestId, ex));
+            } else {
+                enqueue(key, s, Protocol.resultHeader(requestId, Protocol.STATUS_OK, material.size(der)),
+                        material.frames(der));
+            }
+            if (s.inputClosed && s.pending == 0) s.closeAfterFlush = true;
+        });
+    }
+
+    private void handleBatchAsync(SelectionKey key, Session s, int requestId, List<String> names, KeyType keyType,
+                                  boolean forwarded, boolean der, String tenant) {
+        s.pending++;
+        var batch = new Session.Batch(requestId, names.size());
+        long start = System.nanoTime();
+        for (int i = 0; i < names.size(); i++) {
+            int index = i;
+            metrics.request();
+            await(key, s, names.get(i), keyType, forwarded, der, tenant, (material, ex) -> {
+                metrics.requests().recordSince(start);
+                if (ex != null) {
+                    batch.failed.add(index);
+                    enqueue(key, s, replies.itemFailure(requestId, index, ex));
+                } else {
+                    batch.succeeded++;
+                    enqueue(key, s, Protocol.itemHeader(requestId, Protocol.STATUS_OK, index, material.size(der)),
+                            material.frames(der));
+                }
+                if (--batch.remaining > 0) return;
+                int[] failed = batch.failed.stream().mapToInt(Integer::intValue).toArray();
+                enqueue(key, s, Protocol.summary(requestId, batch.succeeded, failed));
+                s.pending--;
+                if (s.inputClosed && s.pending == 0) s.closeAfterFlush = true;
+            });
+        }
+    }
+
+    /*
+     * Sessions on this reactor waiting for the same name share one future from the generation service, and its
+     * completion is a single inbox event that serves all of them. The future is cancelled only when the last
+     * waiting session goes away. The generation is scheduled on the account of the first waiter's tenant.
+     * DER and PEM waiters form separate groups, so the generation service knows whether to build PEM frames.
+     */
+    private void await(SelectionKey key, Session s, String name, KeyType keyType, boolean forwarded, boolean der,
+                       String tenant, BiConsumer<FramedMaterial, Throwable> deliver) {
+        String id = (keyType != null ? keyType.label() : "") + '/' + name + (forwarded ? "/fwd" : "") +
+                (der ? "/der" : "");
+        Session.Group group = groups.get(id);
+        if (group == null) {
+            var result = generation.get(name, keyType, forwarded, tenant, der);
+            var g = group = new Session.Group(id, result);
+            groups.put(id, g);
+            result.whenComplete((material, ex) -> inbox.post(() -> complete(g, material, ex)));
+        } else {
+            metrics.waiterCoalesced();
+        }
+        var waiter = new Session.Waiter(key, group, deliver);
+        group.waiters.add(waiter);
+        s.waiting.add(waiter);
+    }
+
+    private void complete(Session.Group group, FramedMaterial material, Throwable ex) {
+        groups.remove(group.id, group);
+        for (Session.Waiter w : group.waiters) {
+            if (!w.key.isValid()) continue;
+            Session s = (Session) w.key.attachment();
+            s.waiting.remove(w);
+            try {
+                w.deliver.accept(material, ex);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void onEndOfInput(SelectionKey key, Session s) {
+        if (s.mode != Session.Mode.FRAMED || (s.pending == 0 && s.out.isEmpty())) {
+            close(key);
+            return;
+        }
+        s.inputClosed = true;
+        releaseInput(s);
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        if (s.pending == 0) s.closeAfterFlush = true;
+        rearm(key, s);
+    }
+
+    private void enqueue(SelectionKey key, Session s, ByteBuffer... buffers) {
+        for (ByteBuffer b : buffers) s.out.add(b);
+        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        rearm(key, s);
+    }
+
+    private void enqueueFrames(SelectionKey key, Session s, FramedMaterial material) {
+        s.closeAfterFlush = true;
+        enqueue(key, s, material.frames(false));
+    }
+
+    private void replyErrorAndClose(SelectionKey key, Session s, Throwable ex) {
+        s.closeAfterFlush = true;
+        enqueue(key, s, replies.legacyFailure(ex));
+    }
+
+    private void onWrite(SelectionKey key) throws IOException {
+        SocketChannel ch = (SocketChannel) key.channel();
+        Session s = (Session) key.attachment();
+        long start = System.nanoTime();
+        long written = 0;
+        while (!s.out.isEmpty()) {
+            int n = 0;
+            for (ByteBuffer b : s.out) {
+                gather[n++] = b;
+                if (n == gather.length) break;
+            }
+            written += ch.write(gather, 0, n);
+            Arrays.fill(gather, 0, n, null);
+            int done = 0;
+            while (!s.out.isEmpty() && !s.out.peek().hasRemaining()) {
+                s.out.poll();
+                done++;
+            }
+            if (done < n) break;
+        }
+        metrics.socketWrites().recordSince(start);
+        metrics.bytesOut(written);
+        if (s.out.isEmpty()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (s.closeAfterFlush) close(key);
+        } else {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+        rearm(key, s);
+    }
+
+    private void close(SelectionKey key) {
+        if (!key.channel().isOpen()) return;
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+        }
+        key.cancel();
+        sessions.decrementAndGet();
+        metrics.sessionClosed();
+        // Let the generation service know nobody on this connection is waiting anymore.
+        Session s = (Session) key.attachment();
+        wheel.cancel(s.timer);
+        for (Session.Waiter w : s.waiting) {
+            Session.Group group = w.group;
+            group.waiters.remove(w);
+            if (group.waiters.isEmpty() && groups.remove(group.id, group)) group.result.cancel(false);
+        }
+        s.waiting.clear();
+        releaseInput(s);
+    }
+}
@@ -0,0 +1,45 @@
+package miron.gaskov.server;
+
+import miron.gaskov.common.OverloadedException;
+import miron.gaskov.common.Protocol;
+import miron.gaskov.server.metrics.Metrics;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+
+final class Replies {
+    private static final ByteBuffer LEGACY_ERROR = ByteBuffer.allocateDirect(8).asReadOnlyBuffer();
+
+    private final Metrics metrics;
+
+    Replies(Metrics metrics) {
+        this.metrics = Objects.requireNonNull(metrics);
+    }
+
+    ByteBuffer legacyFailure(Throwable ex) {
+        ex = record(ex);
+        if (ex instanceof OverloadedException o) return Protocol.legacyOverloaded(o.retryAfterMillis());
+        return LEGACY_ERROR.duplicate();
+    }
+
+    ByteBuffer failure(int requestId, Throwable ex) {
+        ex = record(ex);
+        if (ex instanceof OverloadedException o) return Protocol.overloaded(requestId, o.retryAfterMillis());
+        return Protocol.error(requestId, ex.getMessage());
+    }
+
+    ByteBuffer itemFailure(int requestId, int index, Throwable ex) {
+        ex = record(ex);
+        if (ex instanceof OverloadedException o) return Protocol.itemOverloaded(requestId, index, o.retryAfterMillis());
+        return Protocol.itemError(requestId, index, ex.getMessage());
+    }
+
+    private Throwable record(Throwable ex) {
+        while (ex instanceof CompletionException && ex.getCause() != null) ex = ex.getCause();
+        System.err.println("Error: " + ex.getMessage());
+        if (ex instanceof OverloadedException) metrics.overloaded();
+        else metrics.error();
+        return ex;
+    }
+}
@@ -0,0 +1,91 @@
+package miron.gaskov.server;
+
+import miron.gaskov.common.KeyType;
+import miron.gaskov.common.Protocol;
+import miron.gaskov.server.generation.GenerationScheduler;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// keyType is null when the client left the choice to the server, tenant when it did not declare one.
+record Request(byte type, int requestId, List<String> names, KeyType keyType, byte flags, String tenant) {
+    private static final byte KNOWN_FLAGS = Protocol.FLAG_FORWARDED | Protocol.FLAG_DER | Protocol.FLAG_TENANT;
+
+    boolean forwarded() {
+        return (flags & Protocol.FLAG_FORWARDED) != 0;
+    }
+
+    boolean der() {
+        return (flags & Protocol.FLAG_DER) != 0;
+    }
+
+    /*
+     * Generation work is scheduled per tenant; a client that declares none is its own tenant, by address. A
+     * declared tenant is scoped under the address too, so a client cannot join or crowd out another's queue
+     * by naming it. Relayed requests end up under the relaying node's address.
+     */
+    String tenantOr(String client) {
+        return tenant != null ? client + "/" + tenant : client;
+    }
+
+    static String client(SocketChannel ch) {
+        try {
+            if (ch.getRemoteAddress() instanceof InetSocketAddress a && a.getAddress() != null)
+                return a.getAddress().getHostAddress();
+        } catch (IOException ignored) {
+        }
+        return GenerationScheduler.DEFAULT_TENANT;
+    }
+
+    static Request decode(byte type, int requestId, ByteBuffer body) {
+        if (type != Protocol.GET && type != Protocol.BATCH)
+            throw new IllegalArgumentException("unsupported frame type " + type);
+        if (body.remaining() < (type == Protocol.GET ? 4 : 6))
+            throw new IllegalArgumentException("truncated request");
+        byte flags = body.get();
+        byte keyType = body.get();
+        if ((flags & ~KNOWN_FLAGS) != 0) throw new IllegalArgumentException("unsupported request options");
+        KeyType kt = keyType != 0 ? KeyType.fromCode(keyType) : null;
+        String tenant = (flags & Protocol.FLAG_TENANT) != 0 ? readString(body, Protocol.MAX_TENANT, "bad tenant") : null;
+
+        if (type == Protocol.GET) {
+            String name = readName(body);
+            if (body.hasRemaining()) throw new IllegalArgumentException("bad name");
+            return new Request(type, requestId, List.of(name), kt, flags, tenant);
+        }
+
+        if (body.remaining() < 4) throw new IllegalArgumentException("truncated request");
+        int count = body.getInt();
+        if (count <= 0 || count > Protocol.MAX_BATCH) throw new IllegalArgumentException("bad batch size " + count);
+        var names = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) names.add(readName(body));
+        return new Request(type, requestId, names, kt, flags, tenant);
+    }
+
+    // Only a BATCH may be large; anything else is bounded by the longest GET.
+    static int maxLength(byte type) {
+        return type == Protocol.BATCH ? Protocol.MAX_REQUEST : Protocol.MAX_GET;
+    }
+
+    static String legacyName(byte[] name, int length) {
+        return new String(name, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private static String readName(ByteBuffer body) {
+        return readString(body, Protocol.MAX_NAME, "bad name");
+    }
+
+    private static String readString(ByteBuffer body, int max, String error) {
+        if (body.remaining() < 2) throw new IllegalArgumentException(error);
+        int len = body.getShort() & 0xFFFF;
+        if (len == 0 || len > max || len > body.remaining()) throw new IllegalArgumentException(error);
+        byte[] s = new byte[len];
+        body.get(s);
+        return new String(s, StandardCharsets.UTF_8);
+    }
+}
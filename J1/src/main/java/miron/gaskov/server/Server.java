@@ -1,183 +1,145 @@
 package miron.gaskov.server;
 
-import miron.gaskov.common.KeyMaterial;
-import miron.gaskov.server.generation.RsaGenerationService;
+import miron.gaskov.server.generation.GenerationService;
+import miron.gaskov.server.metrics.Metrics;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.*;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Locale;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
-public final class Server {
+public final class Server implements ServerEngine {
+    public static final long DEFAULT_IO_BUFFER_BYTES = 64L * 1024 * 1024;
+    static final long ACCEPT_BACKOFF_MILLIS = 100;
+
     private final int port;
-    private final RsaGenerationService generation;
 
     private final Selector selector;
     private final ServerSocketChannel server;
-    private final Inbox inbox;
+    private final Reactor[] reactors;
+    private final Balance balance;
+    private final Metrics metrics;
+    private final int maxConnections;
+    private volatile boolean closed = false;
+    private int next = 0;
+
+    public Server(int port, GenerationService generation) throws IOException {
+        this(port, generation, 1, Balance.ROUND_ROBIN, new Metrics(), DEFAULT_IO_BUFFER_BYTES, Deadlines.NONE, 0);
+    }
 
-    public Server(int port, RsaGenerationService generation) throws IOException {
+    public Server(int port, GenerationService generation, int reactorCount, Balance balance, Metrics metrics,
+                  long ioBufferBytes, Deadlines deadlines, int maxConnections) throws IOException {
+        Objects.requireNonNull(generation);
         this.port = port;
-        this.generation = Objects.requireNonNull(generation);
+        this.balance = Objects.requireNonNull(balance);
+        this.metrics = Objects.requireNonNull(metrics);
+        this.maxConnections = maxConnections;
+        this.reactors = new Reactor[Math.max(1, reactorCount)];
+        var buffers = new BufferPool(Session.IN_SIZE, ioBufferBytes);
+        for (int i = 0; i < reactors.length; i++) reactors[i] = new Reactor(i, generation, metrics, buffers, deadlines);
+        metrics.gauge("io_buffers_in_use", "Pooled read buffers currently lent to sessions",
+                () -> buffers.stats().inUse());
+        metrics.gauge("io_buffer_allocated_bytes", "Direct memory allocated by the read buffer pool",
+                () -> buffers.stats().allocatedBytes());
+        metrics.counter("io_buffer_fallbacks_total", "Read buffers served from the heap because the pool was full",
+                () -> buffers.stats().fallbacks());
         this.selector = Selector.open();
         this.server = ServerSocketChannel.open();
         this.server.configureBlocking(false);
         this.server.bind(new InetSocketAddress("0.0.0.0", port));
         this.server.register(selector, SelectionKey.OP_ACCEPT);
-        this.inbox = new Inbox(selector);
     }
 
+    @Override
     public void run() throws IOException {
-        System.out.println("KeyGen server started on :" + port);
-        while (true) {
-            inbox.drain();
-            selector.select();
-            inbox.drain();
-
-            var it = selector.selectedKeys().iterator();
-            while (it.hasNext()) {
-                SelectionKey key = it.next();
-                it.remove();
-                if (!key.isValid()) continue;
-                try {
-                    if (key.isAcceptable()) onAccept();
-                    if (key.isValid() && key.isReadable()) onRead(key);
-                    if (key.isValid() && key.isWritable()) onWrite(key);
-                } catch (IOException e) {
-                    close(key);
-                }
-            }
+        for (Reactor r : reactors) {
+            Thread t = new Thread(r, "reactor-" + r.id());
+            t.setDaemon(true);
+            t.start();
+        }
+        System.out.println("KeyGen server started on :" + port + " (" + reactors.length + " reactors, " +
+                balance.name().toLowerCase(Locale.ROOT).replace('_', '-') + ")");
+        try {
+            accept();
+        } finally {
+            for (Reactor r : reactors) r.stop();
+            selector.close();
         }
     }
 
-    private void onAccept() throws IOException {
-        SocketChannel ch = server.accept();
-        if (ch == null) return;
-        ch.configureBlocking(false);
-        SelectionKey key = ch.register(selector, SelectionKey.OP_READ);
-        key.attach(new Session());
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        selector.wakeup();
     }
 
-    private void onRead(SelectionKey key) throws IOException {
-        SocketChannel ch = (SocketChannel) key.channel();
-        Session s = (Session) key.attachment();
-        int n = ch.read(s.in);
-        if (n == -1) {
-            close(key);
-            return;
-        }
-        if (n == 0) return;
-
-        s.in.flip();
-        while (s.in.hasRemaining() && !s.nameDone) {
-            byte b = s.in.get();
-            if (b == 0) {
-                s.nameDone = true;
-                final String name = s.name.toString();
-                s.name.setLength(0);
-                if (name.isEmpty()) {
-                    replyErrorAndClose(key, s, "empty name");
+    private void accept() throws IOException {
+        while (!closed) {
+            selector.select();
+            selector.selectedKeys().clear();
+            while (true) {
+                SocketChannel ch;
+                try {
+                    ch = server.accept();
+                } catch (ClosedChannelException e) {
+                    if (closed) return;
+                    throw e;
+                } catch (IOException e) {
+                    // Typically out of file descriptors: the pending connection waits in the backlog meanwhile.
+                    System.err.println("Accept failed: " + e);
+                    try {
+                        Thread.sleep(ACCEPT_BACKOFF_MILLIS);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
                     break;
                 }
-                handleNameAsync(key, s, name);
-            } else {
-                if (s.name.length() < Session.MAX_NAME) s.name.append((char) (b & 0xFF));
-            }
-        }
-        s.in.compact();
-    }
-
-    private void handleNameAsync(SelectionKey key, Session s, String name) {
-        System.out.println("Request for '" + name + "'");
-        generation.get(name).whenComplete((km, ex) -> inbox.post(() -> {
-            if (!key.isValid()) return;
-            if (ex != null) {
-                replyErrorAndClose(key, (Session) key.attachment(), ex.getMessage());
-            } else {
-                enqueueFrames(key, (Session) key.attachment(), km);
+                if (ch == null) break;
+                if (maxConnections > 0 && connections() >= maxConnections) {
+                    metrics.connectionRejected();
+                    ch.close();
+                    continue;
+                }
+                try {
+                    ch.configureBlocking(false);
+                } catch (IOException e) {
+                    ch.close();
+                    continue;
+                }
+                pick().register(ch);
             }
-        }));
-    }
-
-    private void enqueueFrames(SelectionKey key, Session s, KeyMaterial km) {
-        s.out.add(lenPrefixed(km.privateKeyPem()));
-        s.out.add(lenPrefixed(km.certificatePem()));
-        s.closeAfterFlush = true;
-        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
-    }
-
-    private void replyErrorAndClose(SelectionKey key, Session s, String msg) {
-        System.err.println("Error: " + msg);
-        s.out.add(lenPrefixed(new byte[0]));
-        s.out.add(lenPrefixed(new byte[0]));
-        s.closeAfterFlush = true;
-        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
-    }
-
-    private void onWrite(SelectionKey key) throws IOException {
-        SocketChannel ch = (SocketChannel) key.channel();
-        Session s = (Session) key.attachment();
-        while (!s.out.isEmpty()) {
-            ByteBuffer buf = s.out.peek();
-            ch.write(buf);
-            if (buf.hasRemaining()) break;
-            s.out.poll();
-        }
-        if (s.out.isEmpty()) {
-            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
-            if (s.closeAfterFlush) close(key);
-        } else {
-            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
         }
     }
 
-    private static ByteBuffer lenPrefixed(byte[] payload) {
-        ByteBuffer b = ByteBuffer.allocate(4 + payload.length);
-        b.putInt(payload.length).put(payload).flip();
-        return b;
+    private int connections() {
+        int n = 0;
+        for (Reactor r : reactors) n += r.load();
+        return n;
     }
 
-    private void close(SelectionKey key) {
-        try {
-            key.channel().close();
-        } catch (IOException ignored) {
+    private Reactor pick() {
+        if (balance == Balance.LEAST_LOAD) {
+            Reactor best = reactors[0];
+            for (Reactor r : reactors) if (r.load() < best.load()) best = r;
+            return best;
         }
-        key.cancel();
-    }
-
-    private static final class Session {
-        static final int MAX_NAME = 1024;
-        final ByteBuffer in = ByteBuffer.allocateDirect(8 * 1024);
-        final Deque<ByteBuffer> out = new ArrayDeque<>();
-        final StringBuilder name = new StringBuilder(64);
-        boolean nameDone = false;
-        boolean closeAfterFlush = false;
+        Reactor r = reactors[next];
+        next = (next + 1) % reactors.length;
+        return r;
     }
 
-    private static final class Inbox {
-        private final Selector selector;
-        private final ConcurrentLinkedQueue<Runnable> q = new ConcurrentLinkedQueue<>();
-
-        Inbox(Selector selector) {
-            this.selector = selector;
-        }
+    public enum Balance {
+        ROUND_ROBIN, LEAST_LOAD;
 
-        void post(Runnable r) {
-            q.add(r);
-            selector.wakeup();
-        }
-
-        void drain() {
-            for (Runnable r; (r = q.poll()) != null; )
-                try {
-                    r.run();
-                } catch (Throwable t) {
-                    t.printStackTrace();
-                }
+        public static Balance parse(String s) {
+            return valueOf(s.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
         }
     }
 }
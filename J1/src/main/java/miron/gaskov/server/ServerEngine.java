@@ -0,0 +1,12 @@
+package miron.gaskov.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+public interface ServerEngine extends Closeable {
+    void run() throws IOException;
+
+    // Stops accepting and closes every open session; run() then returns.
+    @Override
+    void close() throws IOException;
+}
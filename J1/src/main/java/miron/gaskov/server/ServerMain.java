@@ -1,7 +1,19 @@
 package miron.gaskov.server;
 
+import miron.gaskov.server.cache.MaterialCache;
+import miron.gaskov.server.cluster.Cluster;
 import miron.gaskov.server.generation.CertificateService;
-import miron.gaskov.server.generation.RsaGenerationService;
+import miron.gaskov.server.generation.EntropySource;
+import miron.gaskov.server.generation.GenerationScheduler;
+import miron.gaskov.server.generation.KeyPairPool;
+import miron.gaskov.server.generation.GenerationService;
+import miron.gaskov.server.generation.ParallelRsaKeyGenerator;
+import miron.gaskov.server.metrics.Metrics;
+import miron.gaskov.server.metrics.MetricsHttpServer;
+import miron.gaskov.server.metrics.MetricsMBean;
+import miron.gaskov.server.preload.AdminSocket;
+import miron.gaskov.server.preload.Preloader;
+import miron.gaskov.server.store.MaterialStore;
 import miron.gaskov.server.utils.SigningKeyLoader;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
@@ -9,7 +21,9 @@ import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import java.nio.file.Path;
 import java.security.PrivateKey;
 import java.security.Security;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
 
 public final class ServerMain {
     public static void main(String[] args) throws Exception {
@@ -19,18 +33,115 @@ public final class ServerMain {
 
         PrivateKey signingKey = SigningKeyLoader.loadPem(Path.of(opts.signingKeyPath()));
 
+        var entropy = new EntropySource(opts.reseedBytes(), opts.reseedMillis());
+
         var certService = new CertificateService(
                 new X500Name(opts.issuerDN()),
                 signingKey,
                 opts.sigAlg(),
-                opts.validDays()
+                opts.validDays(),
+                entropy
         );
 
-        var pool = Executors.newFixedThreadPool(opts.threads());
+        var scheduler = new GenerationScheduler(opts.threads(), opts.maxPending(), opts.maxQueueMillis(),
+                opts.tenants());
+
+        KeyPairPool keyPool = null;
+        if (opts.poolSize() > 0) {
+            var keyType = opts.keyType();
+            keyPool = new KeyPairPool(opts.poolSize(), opts.poolLow(), opts.poolHigh(), opts.poolThreads(), scheduler,
+                    () -> GenerationService.generateKeyPair(keyType, entropy.random()));
+        }
+
+        MaterialStore store = opts.storeDir() != null ? MaterialStore.open(Path.of(opts.storeDir()), opts.keyType()) : null;
+
+        var cache = new MaterialCache(opts.cacheBytes());
+        if (store == null)
+            System.out.println("No --store-dir: the material cache is unbounded");
+
+        var metrics = new Metrics();
+        registerGauges(metrics, scheduler, cache, keyPool);
+        metrics.gauge("entropy_generators", "Threads holding their own DRBG", () -> entropy.stats().generators());
+        metrics.counter("entropy_reseeds_total", "DRBGs replaced by a freshly seeded instance",
+                () -> entropy.stats().reseeds());
+        metrics.counter("entropy_bytes_total", "Random bytes drawn for keys and serials", () -> entropy.stats().bytes());
+        if (store != null) {
+            metrics.counter("store_write_failures_total", "Failed appends to the material store",
+                    () -> store.stats().writeFailures());
+            metrics.gauge("store_retry_records", "Records waiting to be appended again after a failed write",
+                    () -> store.stats().retrying());
+        }
+
+        var rsa = opts.rsaSearchThreads() > 0 ? new ParallelRsaKeyGenerator(opts.rsaSearchThreads(), entropy)
+                : null;
+        var cluster = opts.peers() != null ? new Cluster(opts.self(), opts.peers()) : null;
+        var genService = new GenerationService(scheduler, certService, opts.keyType(), cache, keyPool, store,
+                opts.abandon(), metrics, rsa, cluster, entropy);
+        metrics.counter("keygen_abandoned_total", "Generations nobody was waiting for anymore", genService::abandoned);
+        if (cluster != null) {
+            metrics.counter("cluster_forwarded_total", "Requests relayed to the owning node", genService::forwarded);
+            System.out.println("Cluster node " + cluster.self() + " of " + cluster.size());
+        }
 
-        var genService = new RsaGenerationService(pool, certService, opts.keyBits());
+        if (opts.preloadFile() != null || opts.adminPort() > 0) {
+            var preloader = new Preloader(genService, opts.preloadRate(), store != null);
+            metrics.counter("preload_done_total", "Names preloaded", () -> preloader.stats().done());
+            metrics.counter("preload_failed_total", "Names that failed to preload", () -> preloader.stats().failed());
+            metrics.gauge("preload_remaining", "Names left to preload", () -> preloader.stats().remaining());
+            if (opts.adminPort() > 0) AdminSocket.start(preloader, opts.adminPort());
+            if (opts.preloadFile() != null) preloader.start(Path.of(opts.preloadFile()), null);
+        }
 
-        var server = new Server(opts.port(), genService);
+        MetricsMBean.register(metrics, opts.port());
+        if (opts.metricsPort() > 0) MetricsHttpServer.start(metrics, opts.metricsPort());
+
+        ServerEngine server = opts.engine().equals("vthreads")
+                ? new VirtualThreadServer(opts.port(), genService, metrics, opts.maxConnections(),
+                        opts.deadlines())
+                : new Server(opts.port(), genService, opts.reactors(), opts.balance(), metrics,
+                        opts.ioBufferBytes(), opts.deadlines(), opts.maxConnections());
         server.run();
     }
+
+    private static void registerGauges(Metrics metrics, GenerationScheduler scheduler, MaterialCache cache,
+                                       KeyPairPool keyPool) {
+        metrics.gauge("keygen_queue_depth", "Generation tasks waiting for a worker", () -> scheduler.stats().queued());
+        metrics.gauge("keygen_background_depth", "Deferred generations nobody is waiting for",
+                () -> scheduler.stats().background());
+        metrics.counter("keygen_rejected_total", "Generations rejected because the queue was full",
+                () -> scheduler.stats().rejected());
+        metrics.counter("keygen_expired_total", "Generations dropped after waiting too long",
+                () -> scheduler.stats().expired());
+        metrics.counter("keygen_evicted_total", "Queued generations dropped to make room for a tenant with a shorter queue",
+                () -> scheduler.stats().evicted());
+        metrics.gauge("keygen_tenants_active", "Tenants with generations queued or running",
+                () -> scheduler.stats().tenants());
+        metrics.gauges("keygen_tenant_queue_depth", "Generation tasks waiting for a worker, per tenant", "tenant",
+                () -> tenantValues(scheduler, GenerationScheduler.TenantStats::queued));
+        metrics.gauges("keygen_tenant_running", "Generation tasks running, per tenant", "tenant",
+                () -> tenantValues(scheduler, GenerationScheduler.TenantStats::running));
+        metrics.gauges("keygen_tenant_wait_seconds", "Recent mean wait for a worker, per tenant", "tenant",
+                () -> tenantValues(scheduler, t -> t.meanWaitMillis() / 1000));
+        metrics.gauges("keygen_tenant_oldest_wait_seconds", "Age of the oldest queued task, per tenant", "tenant",
+                () -> tenantValues(scheduler, t -> t.oldestWaitMillis() / 1000));
+        metrics.gauge("cache_entries", "Entries in the material cache", () -> cache.stats().entries());
+        metrics.gauge("cache_resident_bytes", "Bytes held by the material cache", () -> cache.stats().residentBytes());
+        metrics.gauge("cache_hit_ratio", "Material cache hit ratio", () -> cache.stats().hitRatio());
+        metrics.counter("cache_evictions_total", "Material cache evictions", () -> cache.stats().evictions());
+        metrics.gauge("cache_pinned_entries", "Cached entries not yet durable in the store", () -> cache.stats().pinned());
+        if (keyPool != null) {
+            metrics.gauge("keypool_depth", "Pre-generated key pairs ready", () -> keyPool.stats().depth());
+            metrics.counter("keypool_hits_total", "Generations served a pre-generated key pair",
+                    () -> keyPool.stats().hits());
+            metrics.counter("keypool_misses_total", "Generations that found the key pool empty",
+                    () -> keyPool.stats().misses());
+        }
+    }
+
+    private static Map<String, Number> tenantValues(GenerationScheduler scheduler,
+                                                    Function<GenerationScheduler.TenantStats, Number> value) {
+        var values = new TreeMap<String, Number>();
+        for (var t : scheduler.tenantStats()) values.put(t.tenant(), value.apply(t));
+        return values;
+    }
 }
@@ -1,29 +1,124 @@
 package miron.gaskov.server;
 
+import miron.gaskov.common.KeyType;
+import miron.gaskov.server.cache.MaterialCache;
+import miron.gaskov.server.generation.EntropySource;
+import miron.gaskov.server.generation.GenerationScheduler;
+import miron.gaskov.server.generation.GenerationService;
+
 record ServerOptions(
-        int port, int threads, int keyBits, String signingKeyPath, String issuerDN, String sigAlg, int validDays
+        int port, String engine, int reactors, Server.Balance balance, long ioBufferBytes,
+        Deadlines deadlines, int maxConnections,
+        int threads, int maxPending, long maxQueueMillis, GenerationService.AbandonPolicy abandon,
+        GenerationScheduler.TenantPolicy tenants,
+        KeyType keyType, int rsaSearchThreads, long reseedBytes, long reseedMillis,
+        String signingKeyPath, String issuerDN, String sigAlg, int validDays,
+        long cacheBytes, int poolSize, int poolLow, int poolHigh, int poolThreads, String storeDir,
+        int metricsPort, String preloadFile, double preloadRate, int adminPort, String peers, String self
 ) {
+    static final long DEFAULT_CACHE_BYTES = 256L * 1024 * 1024;
+
     static ServerOptions parse(String[] args) {
         int port = 9999;
+        String engine = "nio";
+        int reactors = 1;
+        Server.Balance balance = Server.Balance.ROUND_ROBIN;
+        long ioBufferBytes = Server.DEFAULT_IO_BUFFER_BYTES;
+        long readTimeoutMillis = 30_000;
+        long generationTimeoutMillis = 0;
+        long writeTimeoutMillis = 30_000;
+        int maxConnections = 10_000;
         int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        int maxPending = 1024;
+        long maxQueueMillis = 60_000;
+        GenerationService.AbandonPolicy abandon = GenerationService.AbandonPolicy.DROP;
+        int tenantMaxRunning = 0;
+        String tenantWeights = "";
         int keyBits = 8192;
+        KeyType keyType = null;
+        int rsaSearchThreads = 0;
+        long reseedBytes = EntropySource.DEFAULT_RESEED_BYTES;
+        long reseedMillis = EntropySource.DEFAULT_RESEED_MILLIS;
         String key = "signer.key";
         String issuer = "CN=Test Issuer";
-        String sigAlg = "SHA512withRSA";
+        String sigAlg = "auto";
         int validDays = 3650;
+        long cacheBytes = -1;
+        int poolSize = 0;
+        int poolLow = -1;
+        int poolHigh = -1;
+        int poolThreads = 1;
+        String storeDir = null;
+        int metricsPort = 0;
+        String preloadFile = null;
+        double preloadRate = 0;
+        int adminPort = 0;
+        String peers = null;
+        String self = null;
 
         for (int i = 0; i < args.length; i += 2) {
             String v = (i + 1 < args.length) ? args[i + 1] : "";
             switch (args[i]) {
                 case "--port" -> port = Integer.parseInt(v);
+                case "--engine" -> engine = v;
+                case "--reactors" -> reactors = Integer.parseInt(v);
+                case "--balance" -> balance = Server.Balance.parse(v);
+                case "--io-buffer-bytes" -> ioBufferBytes = Long.parseLong(v);
+                case "--read-timeout-ms" -> readTimeoutMillis = Long.parseLong(v);
+                case "--generation-timeout-ms" -> generationTimeoutMillis = Long.parseLong(v);
+                case "--write-timeout-ms" -> writeTimeoutMillis = Long.parseLong(v);
+                case "--max-connections" -> maxConnections = Integer.parseInt(v);
                 case "--threads" -> threads = Integer.parseInt(v);
+                case "--max-pending" -> maxPending = Integer.parseInt(v);
+                case "--max-queue-ms" -> maxQueueMillis = Long.parseLong(v);
+                case "--abandon" -> abandon = GenerationService.AbandonPolicy.parse(v);
+                case "--tenant-max-running" -> tenantMaxRunning = Integer.parseInt(v);
+                case "--tenant-weights" -> tenantWeights = v;
                 case "--key-bits" -> keyBits = Integer.parseInt(v);
+                case "--key-type" -> keyType = KeyType.parse(v);
+                case "--rsa-search-threads" -> rsaSearchThreads = Integer.parseInt(v);
+                case "--reseed-bytes" -> reseedBytes = Long.parseLong(v);
+                case "--reseed-ms" -> reseedMillis = Long.parseLong(v);
                 case "--signing-key" -> key = v;
                 case "--issuer" -> issuer = v;
                 case "--sig-alg" -> sigAlg = v;
                 case "--valid-days" -> validDays = Integer.parseInt(v);
+                case "--cache-bytes" -> cacheBytes = Long.parseLong(v);
+                case "--pool-size" -> poolSize = Integer.parseInt(v);
+                case "--pool-low" -> poolLow = Integer.parseInt(v);
+                case "--pool-high" -> poolHigh = Integer.parseInt(v);
+                case "--pool-threads" -> poolThreads = Integer.parseInt(v);
+                case "--store-dir" -> storeDir = v;
+                case "--metrics-port" -> metricsPort = Integer.parseInt(v);
+                case "--preload" -> preloadFile = v;
+                case "--preload-rate" -> preloadRate = Double.parseDouble(v);
+                case "--admin-port" -> adminPort = Integer.parseInt(v);
+                case "--peers" -> peers = v;
+                case "--self" -> self = v;
             }
         }
-        return new ServerOptions(port, threads, keyBits, key, issuer, sigAlg, validDays);
+        if (peers != null && self == null) self = "127.0.0.1:" + port;
+        if (keyType == null) keyType = KeyType.rsa(keyBits);
+        // Uncapped by default so a lone tenant keeps every worker busy; fair queuing still puts a newcomer next.
+        // A cap reserves workers for other tenants even while they are idle.
+        if (tenantMaxRunning <= 0) tenantMaxRunning = Math.max(1, threads);
+        // Generated material stays pinned until the store has it, so without a store a budget would bound nothing.
+        if (cacheBytes >= 0 && storeDir == null)
+            throw new IllegalArgumentException("--cache-bytes needs --store-dir: without a store nothing can be evicted");
+        if (cacheBytes < 0) cacheBytes = storeDir != null ? DEFAULT_CACHE_BYTES : Long.MAX_VALUE;
+        if (cacheBytes < MaterialCache.MIN_BYTES)
+            throw new IllegalArgumentException("--cache-bytes must hold at least one entry: " + MaterialCache.MIN_BYTES);
+        if (poolHigh < 0) poolHigh = poolSize;
+        if (poolLow < 0) poolLow = poolHigh / 4;
+        if (!engine.equals("nio") && !engine.equals("vthreads"))
+            throw new IllegalArgumentException("Unknown engine: " + engine + " (expected nio or vthreads)");
+        return new ServerOptions(port, engine, reactors, balance, ioBufferBytes,
+                new Deadlines(readTimeoutMillis, generationTimeoutMillis, writeTimeoutMillis), maxConnections,
+                threads, maxPending, maxQueueMillis, abandon,
+                new GenerationScheduler.TenantPolicy(tenantMaxRunning,
+                        GenerationScheduler.TenantPolicy.parseWeights(tenantWeights)),
+                keyType, rsaSearchThreads, reseedBytes, reseedMillis, key, issuer, sigAlg, validDays,
+                cacheBytes, poolSize, poolLow, poolHigh, poolThreads, storeDir,
+                metricsPort, preloadFile, preloadRate, adminPort, peers, self);
     }
 }
\ No newline at end of file
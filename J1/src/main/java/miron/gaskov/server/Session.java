@@ -0,0 +1,74 @@
+package miron.gaskov.server;
+
+import miron.gaskov.common.Protocol;
+import miron.gaskov.server.generation.FramedMaterial;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+final class Session {
+    static final int IN_SIZE = 8 * 1024;
+    ByteBuffer in = null;
+    final Deque<ByteBuffer> out = new ArrayDeque<>();
+    final byte[] name = new byte[Protocol.MAX_NAME];
+    int nameLength = 0;
+    Mode mode = Mode.UNKNOWN;
+    boolean nameDone = false;
+    boolean closeAfterFlush = false;
+    boolean inputClosed = false;
+    int pending = 0;
+    String client;
+    final Set<Waiter> waiting = new HashSet<>();
+    TimerWheel.Timer<SelectionKey> timer;
+    Phase phase = Phase.NONE;
+
+    static final class Batch {
+        final int requestId;
+        int remaining;
+        int succeeded = 0;
+        final List<Integer> failed = new ArrayList<>();
+
+        Batch(int requestId, int size) {
+            this.requestId = requestId;
+            this.remaining = size;
+        }
+    }
+
+    // Sessions on one reactor waiting for the same name; see Reactor.await.
+    static final class Group {
+        final String id;
+        final CompletableFuture<FramedMaterial> result;
+        final Set<Waiter> waiters = new LinkedHashSet<>();
+
+        Group(String id, CompletableFuture<FramedMaterial> result) {
+            this.id = id;
+            this.result = result;
+        }
+    }
+
+    static final class Waiter {
+        final SelectionKey key;
+        final Group group;
+        final BiConsumer<FramedMaterial, Throwable> deliver;
+
+        Waiter(SelectionKey key, Group group, BiConsumer<FramedMaterial, Throwable> deliver) {
+            this.key = key;
+            this.group = group;
+            this.deliver = deliver;
+        }
+    }
+
+    enum Mode {UNKNOWN, LEGACY, FRAMED}
+
+    // What the session is waiting for; each phase has its own deadline.
+    enum Phase {NONE, READ, GENERATION, WRITE}
+}
@@ -0,0 +1,88 @@
+package miron.gaskov.server;
+
+import java.util.function.Consumer;
+
+/*
+ * Hashed timer wheel for one reactor thread, not thread-safe. Timers are intrusive doubly-linked nodes so
+ * scheduling and cancelling are O(1); advancing visits only the slots whose tick has passed. A timer further
+ * out than one revolution stays in its slot until its tick comes round.
+ */
+final class TimerWheel<T> {
+    private final long tickNanos;
+    private final Timer<T>[] slots;
+    private final int mask;
+    private long tick;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(long tickNanos, int slotCount, long nowNanos) {
+        if (Integer.bitCount(slotCount) != 1) throw new IllegalArgumentException("Slot count must be a power of two");
+        this.tickNanos = tickNanos;
+        this.slots = new Timer[slotCount];
+        this.mask = slotCount - 1;
+        this.tick = nowNanos / tickNanos;
+    }
+
+    long tickMillis() {
+        return Math.max(1, tickNanos / 1_000_000);
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Fires on the first advance at or after deadlineNanos (System.nanoTime() based); a scheduled timer is moved.
+    void schedule(Timer<T> timer, long deadlineNanos) {
+        cancel(timer);
+        timer.expires = Math.max(tick + 1, Math.ceilDiv(deadlineNanos, tickNanos));
+        int slot = (int) (timer.expires & mask);
+        timer.next = slots[slot];
+        if (timer.next != null) timer.next.prev = timer;
+        slots[slot] = timer;
+        timer.slot = slot;
+        size++;
+    }
+
+    void cancel(Timer<T> timer) {
+        if (timer.slot < 0) return;
+        if (timer.prev != null) timer.prev.next = timer.next;
+        else slots[timer.slot] = timer.next;
+        if (timer.next != null) timer.next.prev = timer.prev;
+        timer.prev = timer.next = null;
+        timer.slot = -1;
+        size--;
+    }
+
+    void advance(long nowNanos, Consumer<T> expired) {
+        long target = nowNanos / tickNanos;
+        long end = Math.min(target, tick + slots.length);
+        while (tick < end) {
+            tick++;
+            Timer<T> t = slots[(int) (tick & mask)];
+            while (t != null) {
+                Timer<T> next = t.next;
+                if (t.expires <= target) {
+                    cancel(t);
+                    expired.accept(t.target);
+                }
+                t = next;
+            }
+        }
+        tick = Math.max(tick, target);
+    }
+
+    static final class Timer<T> {
+        final T target;
+        private Timer<T> prev, next;
+        private long expires;
+        private int slot = -1;
+
+        Timer(T target) {
+            this.target = target;
+        }
+
+        boolean scheduled() {
+            return slot >= 0;
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package miron.gaskov.server;
+
+import miron.gaskov.common.KeyType;
+import miron.gaskov.common.Protocol;
+import miron.gaskov.server.generation.FramedMaterial;
+import miron.gaskov.server.generation.GenerationService;
+import miron.gaskov.server.metrics.Metrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class VirtualThreadServer implements ServerEngine {
+    private final int port;
+    private final GenerationService generation;
+    private final Metrics metrics;
+    private final Replies replies;
+    private final ServerSocketChannel server;
+    private final int maxConnections;
+    private final Deadlines deadlines;
+    private final ScheduledThreadPoolExecutor timers;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Set<SocketChannel> open = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed = false;
+    private final ThreadFactory threads = Thread.ofVirtual().name("conn-", 0).factory();
+
+    public VirtualThreadServer(int port, GenerationService generation, Metrics metrics, int maxConnections)
+            throws IOException {
+        this(port, generation, metrics, maxConnections, Deadlines.NONE);
+    }
+
+    public VirtualThreadServer(int port, GenerationService generation, Metrics metrics, int maxConnections,
+                               Deadlines deadlines) throws IOException {
+        this.port = port;
+        this.maxConnections = maxConnections;
+        this.deadlines = Objects.requireNonNull(deadlines);
+        this.timers = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "session-deadlines");
+            t.setDaemon(true);
+            return t;
+        });
+        this.timers.setRemoveOnCancelPolicy(true);
+        // Sessions still winding down after close() may arm a deadline; the channel is already closed.
+        this.timers.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy());
+        this.generation = Objects.requireNonNull(generation);
+        this.metrics = Objects.requireNonNull(metrics);
+        this.replies = new Replies(metrics);
+        this.server = ServerSocketChannel.open();
+        this.server.bind(new InetSocketAddress("0.0.0.0", port));
+    }
+
+    @Override
+    public void run() throws IOException {
+        System.out.println("KeyGen server started on :" + port + " (virtual threads)");
+        try {
+            accept();
+        } finally {
+            timers.shutdownNow();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        for (SocketChannel ch : open) ch.close();
+    }
+
+    private void accept() throws IOException {
+        while (!closed) {
+            SocketChannel ch;
+            try {
+                ch = server.accept();
+            } catch (ClosedChannelException e) {
+                if (closed) return;
+                throw e;
+            } catch (IOException e) {
+                // Typically out of file descriptors: the pending connection waits in the backlog meanwhile.
+                System.err.println("Accept failed: " + e);
+                try {
+                    Thread.sleep(Server.ACCEPT_BACKOFF_MILLIS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                continue;
+            }
+            if (maxConnections > 0 && connections.get() >= maxConnections) {
+                metrics.connectionRejected();
+                ch.close();
+                continue;
+            }
+            connections.incrementAndGet();
+            open.add(ch);
+            if (closed) ch.close();
+            threads.newThread(() -> serve(ch)).start();
+        }
+    }
+
+    private void serve(SocketChannel ch) {
+        metrics.sessionOpened();
+        var deadline = new Deadline(ch);
+        try (ch) {
+            ByteBuffer in = ByteBuffer.allocate(Session.IN_SIZE).flip();
+            deadline.enter(Session.Phase.READ);
+            if (!readMore(ch, in)) return;
+            if (in.get(in.position()) == Protocol.MAGIC) serveFramed(ch, in, deadline);
+            else serveLegacy(ch, in, deadline);
+        } catch (IOException ignored) {
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            deadline.enter(Session.Phase.NONE);
+            open.remove(ch);
+            connections.decrementAndGet();
+            metrics.sessionClosed();
+        }
+    }
+
+    private void serveLegacy(SocketChannel ch, ByteBuffer in, Deadline deadline)
+            throws IOException, InterruptedException {
+        byte[] name = new byte[Protocol.MAX_NAME];
+        int length = 0;
+        while (true) {
+            while (in.hasRemaining()) {
+                byte b = in.get();
+                if (b == 0) {
+                    respondLegacy(ch, Request.legacyName(name, length), deadline);
+                    return;
+                }
+                if (length < name.length) name[length++] = b;
+            }
+            if (!readMore(ch, in)) return;
+        }
+    }
+
+    private void respondLegacy(SocketChannel ch, String name, Deadline deadline)
+            throws IOException, InterruptedException {
+        if (name.isEmpty()) {
+            deadline.enter(Session.Phase.WRITE);
+            writeFully(ch, replies.legacyFailure(new IllegalArgumentException("empty name")));
+            return;
+        }
+        metrics.request();
+        long start = System.nanoTime();
+        deadline.enter(Session.Phase.GENERATION);
+        var result = generation.get(name, null, false, Request.client(ch));
+        threads.newThread(() -> cancelOnClose(ch, result)).start();
+        ByteBuffer reply;
+        try {
+            reply = result.get().frames(false);
+        } catch (ExecutionException e) {
+            reply = replies.legacyFailure(e.getCause());
+        } catch (CancellationException e) {
+            return;
+        }
+        metrics.requests().recordSince(start);
+        deadline.enter(Session.Phase.WRITE);
+        writeFully(ch, reply);
+    }
+
+    // A legacy client sends nothing after its name, so end of input means it gave up on the answer.
+    private static void cancelOnClose(SocketChannel ch, CompletableFuture<?> result) {
+        ByteBuffer probe = ByteBuffer.allocate(1);
+        try {
+            while (ch.read(probe) >= 0) probe.clear();
+        } catch (IOException ignored) {
+        }
+        result.cancel(false);
+    }
+
+    private void serveFramed(SocketChannel ch, ByteBuffer in, Deadline deadline)
+            throws IOException, InterruptedException {
+        while (in.remaining() < 2) if (!readMore(ch, in)) return;
+        in.get();
+        byte version = in.get();
+
+        var conn = new Connection(ch, deadline);
+        conn.send(Protocol.hello());
+        if (version != Protocol.VERSION) {
+            System.err.println("Unsupported protocol version " + version);
+            conn.finish();
+            return;
+        }
+
+        try {
+            while (true) {
+                while (in.remaining() >= 5) {
+                    int len = in.getInt(in.position());
+                    if (len < Protocol.REQUEST_HEADER - 4 || len > Request.maxLength(in.get(in.position() + 4))) {
+                        System.err.println("Error: bad frame length " + len);
+                        // As on nio: drop the connection now and cancel its waiters instead of serving them.
+                        conn.abandon();
+                        ch.close();
+                        return;
+                    }
+                    if (in.remaining() < 4 + len) {
+                        // Doubling only once the buffer is full, so memory follows the bytes received.
+                        if (in.remaining() == in.capacity()) in = grow(in, Math.min(4 + len, 2 * in.capacity()));
+                        break;
+                    }
+                    int end = in.position() + 4 + len;
+                    in.getInt();
+                    byte type = in.get();
+                    int requestId = in.getInt();
+                    ByteBuffer body = in.slice(in.position(), end - in.position());
+                    in.position(end);
+                    dispatch(conn, type, requestId, body);
+                }
+                if (!readMore(ch, in)) break;
+            }
+            conn.inputClosed = true;
+            conn.rearm();
+        } catch (IOException e) {
+            conn.abandon();
+            throw e;
+        } finally {
+            conn.finish();
+        }
+    }
+
+    private void dispatch(Connection conn, byte type, int requestId, ByteBuffer body) {
+        Request request;
+        try {
+            request = Request.decode(type, requestId, body);
+        } catch (IllegalArgumentException e) {
+            conn.send(Protocol.error(requestId, e.getMessage()));
+            return;
+        }
+        String tenant = request.tenantOr(conn.client);
+        if (request.type() == Protocol.GET)
+            handleRequest(conn, requestId, request.names().get(0), request.keyType(), request.forwarded(),
+                    request.der(), tenant);
+        else handleBatch(conn, requestId, request.names(), request.keyType(), request.forwarded(),
+                    request.der(), tenant);
+    }
+
+    private void handleRequest(Connection conn, int requestId, String name, KeyType keyType, boolean forwarded,
+                               boolean der, String tenant) {
+        metrics.request();
+        long start = System.nanoTime();
+        conn.begin();
+        conn.watch(generation.get(name, keyType, forwarded, tenant, der)).whenComplete((material, ex) -> {
+            metrics.requests().recordSince(start);
+            if (ex == null) {
+                conn.send(Protocol.resultHeader(requestId, Protocol.STATUS_OK, material.size(der)), material.frames(der));
+            } else if (!(ex instanceof CancellationException)) {
+                conn.send(replies.failure(requestId, ex));
+            }
+            conn.done();
+        });
+    }
+
+    private void handleBatch(Connection conn, int requestId, List<String> names, KeyType keyType,
+                             boolean forwarded, boolean der, String tenant) {
+        conn.begin();
+        var remaining = new AtomicInteger(names.size());
+        var succeeded = new AtomicInteger();
+        var failed = new ConcurrentLinkedQueue<Integer>();
+        long start = System.nanoTime();
+        for (int i = 0; i < names.size(); i++) {
+            int index = i;
+            metrics.request();
+            conn.watch(generation.get(names.get(i), keyType, forwarded, tenant, der)).whenComplete((material, ex) -> {
+                metrics.requests().recordSince(start);
+                if (ex != null) {
+                    failed.add(index);
+                    if (!(ex instanceof CancellationException)) conn.send(replies.itemFailure(requestId, index, ex));
+                } else {
+                    succeeded.incrementAndGet();
+                    conn.send(Protocol.itemHeader(requestId, Protocol.STATUS_OK, index, material.size(der)),
+                            material.frames(der));
+                }
+                if (remaining.decrementAndGet() > 0) return;
+                int[] failedIndexes = failed.stream().mapToInt(Integer::intValue).toArray();
+                conn.send(Protocol.summary(requestId, succeeded.get(), failedIndexes));
+                conn.done();
+            });
+        }
+    }
+
+    private boolean readMore(SocketChannel ch, ByteBuffer in) throws IOException {
+        in.compact();
+        int n = ch.read(in);
+        in.flip();
+        if (n > 0) metrics.bytesIn(n);
+        return n >= 0;
+    }
+
+    private static ByteBuffer grow(ByteBuffer in, int capacity) {
+        ByteBuffer bigger = ByteBuffer.allocate(capacity);
+        bigger.put(in).flip();
+        return bigger;
+    }
+
+    private void writeFully(SocketChannel ch, ByteBuffer... buffers) throws IOException {
+        long start = System.nanoTime();
+        long written = 0;
+        for (ByteBuffer last = buffers[buffers.length - 1]; last.hasRemaining(); ) written += ch.write(buffers);
+        metrics.socketWrites().recordSince(start);
+        metrics.bytesOut(written);
+    }
+
+    /*
+     * The reactor's per-phase deadlines for a connection served by blocking threads: a deadline starts when
+     * the connection enters a phase and progress within the phase does not push it back. Expiry closes the
+     * channel, which fails whatever read or write the connection's threads are blocked in.
+     */
+    private final class Deadline {
+        private final SocketChannel ch;
+        private Session.Phase phase = Session.Phase.NONE;
+        private ScheduledFuture<?> timer;
+        private long armed;
+
+        Deadline(SocketChannel ch) {
+            this.ch = ch;
+        }
+
+        synchronized void enter(Session.Phase next) {
+            if (next == phase) return;
+            phase = next;
+            if (timer != null) timer.cancel(false);
+            long millis = deadlines.millis(next);
+            long id = ++armed;
+            timer = millis > 0 ? timers.schedule(() -> expire(id), millis, TimeUnit.MILLISECONDS) : null;
+        }
+
+        private void expire(long id) {
+            synchronized (this) {
+                if (id != armed) return;
+                switch (phase) {
+                    case READ -> metrics.readTimeout();
+                    case GENERATION -> metrics.generationTimeout();
+                    case WRITE -> metrics.writeTimeout();
+                    case NONE -> {
+                    }
+                }
+                phase = Session.Phase.NONE;
+                timer = null;
+            }
+            try {
+                ch.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private final class Connection {
+        private static final ByteBuffer[] CLOSE = new ByteBuffer[0];
+
+        private final SocketChannel ch;
+        private final String client;
+        private final Deadline deadline;
+        private final LinkedBlockingQueue<ByteBuffer[]> out = new LinkedBlockingQueue<>();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicInteger open = new AtomicInteger(1);
+        private final Set<CompletableFuture<FramedMaterial>> waiting = ConcurrentHashMap.newKeySet();
+        private final Thread writer;
+        volatile boolean inputClosed;
+
+        Connection(SocketChannel ch, Deadline deadline) {
+            this.ch = ch;
+            this.client = Request.client(ch);
+            this.deadline = deadline;
+            this.writer = threads.newThread(this::writeLoop);
+            this.writer.start();
+        }
+
+        void send(ByteBuffer... buffers) {
+            queued.incrementAndGet();
+            out.add(buffers);
+            rearm();
+        }
+
+        // Same precedence as the reactor: unwritten output, then requests in flight, then the next request.
+        void rearm() {
+            synchronized (deadline) {
+                deadline.enter(queued.get() > 0 ? Session.Phase.WRITE
+                        : open.get() > 1 ? Session.Phase.GENERATION
+                        : inputClosed ? Session.Phase.NONE
+                        : Session.Phase.READ);
+            }
+        }
+
+        CompletableFuture<FramedMaterial> watch(CompletableFuture<FramedMaterial> result) {
+            waiting.add(result);
+            result.whenComplete((material, ex) -> waiting.remove(result));
+            return result;
+        }
+
+        void abandon() {
+            for (var result : waiting) result.cancel(false);
+        }
+
+        void begin() {
+            open.incrementAndGet();
+            rearm();
+        }
+
+        void done() {
+            if (open.decrementAndGet() == 0) out.add(CLOSE);
+            else rearm();
+        }
+
+        void finish() throws InterruptedException {
+            done();
+            writer.join();
+        }
+
+        private void writeLoop() {
+            try {
+                for (ByteBuffer[] m; (m = out.take()) != CLOSE; ) {
+                    writeFully(ch, m);
+                    queued.decrementAndGet();
+                    rearm();
+                }
+            } catch (IOException | InterruptedException e) {
+                abandon();
+                try {
+                    ch.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
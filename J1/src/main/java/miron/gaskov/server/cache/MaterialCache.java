@@ -0,0 +1,141 @@
+package miron.gaskov.server.cache;
+
+import miron.gaskov.server.generation.FramedMaterial;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Segmented LRU over a byte budget. Material that exists nowhere else (generated here and not yet durable in the
+ * store) is pinned instead: it counts towards the resident bytes but is never evicted, because evicting it would
+ * make the next request for the name issue a different key. The store unpins an entry once its record is
+ * written; without a store, generated material stays pinned for the life of the process, as it always did.
+ */
+public final class MaterialCache {
+    private static final double PROTECTED_SHARE = 0.8;
+    // Larger than any one entry: an RSA-8192 key with a certificate signed by an RSA-8192 issuer, DER plus PEM.
+    public static final long MIN_BYTES = 64 * 1024;
+
+    private final long maxBytes;
+    private final long maxProtectedBytes;
+
+    private final LinkedHashMap<String, FramedMaterial> probation = new LinkedHashMap<>(64, 0.75f, true);
+    private final LinkedHashMap<String, FramedMaterial> protectedSegment = new LinkedHashMap<>(64, 0.75f, true);
+    private final HashMap<String, FramedMaterial> pinned = new HashMap<>();
+    private long probationBytes = 0;
+    private long protectedBytes = 0;
+    private long pinnedBytes = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private long evictions = 0;
+
+    public MaterialCache(long maxBytes) {
+        if (maxBytes < 0) throw new IllegalArgumentException("Cache budget must not be negative: " + maxBytes);
+        this.maxBytes = maxBytes;
+        this.maxProtectedBytes = (long) (maxBytes * PROTECTED_SHARE);
+    }
+
+    public FramedMaterial get(String name) {
+        FramedMaterial payload;
+        synchronized (this) {
+            payload = pinned.get(name);
+            if (payload == null) payload = protectedSegment.get(name);
+            if (payload == null) {
+                payload = probation.remove(name);
+                if (payload != null) {
+                    probationBytes -= payload.footprint();
+                    promote(name, payload);
+                }
+            }
+        }
+        if (payload == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return payload;
+    }
+
+    public synchronized FramedMaterial peek(String name) {
+        FramedMaterial payload = pinned.get(name);
+        if (payload == null) payload = protectedSegment.get(name);
+        return payload != null ? payload : probation.get(name);
+    }
+
+    // For material that can be fetched again unchanged: from the store, or from the cluster node owning it.
+    public synchronized void put(String name, FramedMaterial payload) {
+        remove(name);
+        if (payload.footprint() > maxBytes) return;
+        probation.put(name, payload);
+        probationBytes += payload.footprint();
+        evictOverBudget();
+    }
+
+    // For material that exists only here; it stays until unpin().
+    public synchronized void pin(String name, FramedMaterial payload) {
+        remove(name);
+        pinned.put(name, payload);
+        pinnedBytes += payload.footprint();
+        evictOverBudget();
+    }
+
+    // The material is durable elsewhere now and may be evicted like any other entry.
+    public synchronized void unpin(String name, FramedMaterial payload) {
+        if (pinned.get(name) != payload) return;
+        put(name, payload);
+    }
+
+    private void remove(String name) {
+        FramedMaterial old = pinned.remove(name);
+        if (old != null) pinnedBytes -= old.footprint();
+        old = protectedSegment.remove(name);
+        if (old != null) protectedBytes -= old.footprint();
+        old = probation.remove(name);
+        if (old != null) probationBytes -= old.footprint();
+    }
+
+    public synchronized Stats stats() {
+        long h = hits.sum();
+        long m = misses.sum();
+        return new Stats(pinned.size() + probation.size() + protectedSegment.size(),
+                pinnedBytes + probationBytes + protectedBytes, maxBytes, h, m,
+                h + m == 0 ? 0.0 : (double) h / (h + m), evictions, pinned.size());
+    }
+
+    private void promote(String name, FramedMaterial payload) {
+        protectedSegment.put(name, payload);
+        protectedBytes += payload.footprint();
+        Iterator<Map.Entry<String, FramedMaterial>> it = protectedSegment.entrySet().iterator();
+        while (protectedBytes > maxProtectedBytes && it.hasNext()) {
+            Map.Entry<String, FramedMaterial> lru = it.next();
+            it.remove();
+            protectedBytes -= lru.getValue().footprint();
+            probation.put(lru.getKey(), lru.getValue());
+            probationBytes += lru.getValue().footprint();
+        }
+    }
+
+    private void evictOverBudget() {
+        evictFrom(probation, true);
+        evictFrom(protectedSegment, false);
+    }
+
+    private void evictFrom(LinkedHashMap<String, FramedMaterial> segment, boolean isProbation) {
+        Iterator<Map.Entry<String, FramedMaterial>> it = segment.entrySet().iterator();
+        while (pinnedBytes + probationBytes + protectedBytes > maxBytes && it.hasNext()) {
+            long size = it.next().getValue().footprint();
+            it.remove();
+            if (isProbation) probationBytes -= size;
+            else protectedBytes -= size;
+            evictions++;
+        }
+    }
+
+    public record Stats(int entries, long residentBytes, long maxBytes, long hits, long misses,
+                        double hitRatio, long evictions, int pinned) {
+    }
+}
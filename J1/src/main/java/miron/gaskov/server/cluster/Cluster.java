@@ -0,0 +1,82 @@
+package miron.gaskov.server.cluster;
+
+import miron.gaskov.client.KeyClient;
+import miron.gaskov.client.KeyClientOptions;
+import miron.gaskov.common.KeyType;
+import miron.gaskov.common.Protocol;
+import miron.gaskov.server.generation.FramedMaterial;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * A static cluster: every node is started with the same peer list ("host:port,host:port,...") and its own
+ * entry from that list. Each name has one owner on the hash ring; the other nodes relay requests for it, so
+ * generation and deduplication for a name happen in one place.
+ *
+ * Relayed requests carry FLAG_FORWARDED so the owner serves them even if its view of the ring differs, ask
+ * for DER, the form this node caches, and name the original client's tenant (the one it declared, or its
+ * address) so the owner schedules the work separately for each of this node's clients. They are not retried:
+ * an overloaded owner is reported to the client, and a generation may legitimately take longer than any fixed
+ * timeout.
+ */
+public final class Cluster implements AutoCloseable {
+    private final String self;
+    private final HashRing ring = new HashRing();
+    private static final byte FORWARD_FLAGS = Protocol.FLAG_FORWARDED | Protocol.FLAG_DER;
+    private static final int PEER_CONNECTIONS = 2;
+
+    private final Map<String, KeyClient> peers = new LinkedHashMap<>();
+
+    public Cluster(String self, String peerList) {
+        this.self = Objects.requireNonNull(self);
+        boolean listed = false;
+        for (String node : peerList.split(",")) {
+            node = node.trim();
+            if (node.isEmpty()) continue;
+            ring.add(node);
+            if (node.equals(self)) listed = true;
+            else peers.put(node, new KeyClient(options(node)));
+        }
+        if (!listed)
+            throw new IllegalArgumentException("This node " + self + " is not in the peer list " + peerList);
+    }
+
+    public String self() {
+        return self;
+    }
+
+    public int size() {
+        return peers.size() + 1;
+    }
+
+    public boolean owns(String name) {
+        return ring.owner(name).equals(self);
+    }
+
+    public CompletableFuture<FramedMaterial> forward(String name, KeyType keyType) {
+        return forward(name, keyType, null);
+    }
+
+    // tenant is scoped as "address/declared" here; the owner scopes what it is sent under this node's address.
+    public CompletableFuture<FramedMaterial> forward(String name, KeyType keyType, String tenant) {
+        String declared = tenant != null ? tenant.substring(tenant.indexOf('/') + 1) : null;
+        return peers.get(ring.owner(name)).fetchFrames(name, keyType, FORWARD_FLAGS, declared)
+                .thenApply(body -> FramedMaterial.wrap(ByteBuffer.allocateDirect(body.remaining()).put(body).flip()));
+    }
+
+    private static KeyClientOptions options(String node) {
+        int colon = node.lastIndexOf(':');
+        if (colon <= 0) throw new IllegalArgumentException("Expected host:port, got " + node);
+        return KeyClientOptions.of(node.substring(0, colon), Integer.parseInt(node.substring(colon + 1)))
+                .withConnections(PEER_CONNECTIONS).withTimeouts(5_000, 0).withRetries(0, 0, 0);
+    }
+
+    @Override
+    public void close() {
+        peers.values().forEach(KeyClient::close);
+    }
+}
@@ -0,0 +1,43 @@
+package miron.gaskov.server.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Consistent hashing with virtual nodes: every node owns VNODES points on a 64-bit ring and a name belongs to
+ * the first point at or after its hash. Adding or removing a node only moves the names between its points and
+ * their predecessors, about 1/n of all names.
+ */
+public final class HashRing {
+    static final int VNODES = 160;
+
+    private final TreeMap<Long, String> points = new TreeMap<>();
+
+    public synchronized void add(String node) {
+        for (int i = 0; i < VNODES; i++) points.putIfAbsent(hash(node + "#" + i), node);
+    }
+
+    public synchronized void remove(String node) {
+        points.values().removeIf(node::equals);
+    }
+
+    public synchronized String owner(String name) {
+        if (points.isEmpty()) throw new IllegalStateException("Empty hash ring");
+        Map.Entry<Long, String> e = points.ceilingEntry(hash(name));
+        return e != null ? e.getValue() : points.firstEntry().getValue();
+    }
+
+    static long hash(String s) {
+        try {
+            byte[] d = MessageDigest.getInstance("MD5").digest(s.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i++) h = (h << 8) | (d[i] & 0xFF);
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,50 +1,116 @@
 package miron.gaskov.server.generation;
 
+import miron.gaskov.common.KeyType;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.cert.X509v3CertificateBuilder;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
 import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.OperatorCreationException;
 import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
+/*
+ * Signers and serial-number sources are confined to the calling thread: a ContentSigner is stateful but
+ * reusable once getSignature() has returned, and serials come from the calling thread's DRBG in the
+ * EntropySource, so issuing threads never contend on one SecureRandom.
+ *
+ * With sigAlg null or "auto" the signature algorithm follows the signing key (RSA, ECDSA or EdDSA) and the
+ * digest follows the strength of the subject's key type.
+ */
 public final class CertificateService {
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
     private final X500Name issuer;
     private final PrivateKey signingKey;
     private final String sigAlg;
     private final int validDays;
-    private final SecureRandom rnd = new SecureRandom();
+    private final ThreadLocal<Map<String, ContentSigner>> signers = ThreadLocal.withInitial(HashMap::new);
+    private final EntropySource entropy;
 
     public CertificateService(X500Name issuer, PrivateKey signingKey, String sigAlg, int validDays) {
+        this(issuer, signingKey, sigAlg, validDays, EntropySource.defaultSource());
+    }
+
+    public CertificateService(X500Name issuer, PrivateKey signingKey, String sigAlg, int validDays,
+                              EntropySource entropy) {
+        this.entropy = Objects.requireNonNull(entropy);
         this.issuer = Objects.requireNonNull(issuer);
         this.signingKey = Objects.requireNonNull(signingKey);
-        this.sigAlg = Objects.requireNonNullElse(sigAlg, "SHA512withRSA");
+        this.sigAlg = sigAlg == null || sigAlg.equalsIgnoreCase("auto") ? null : sigAlg;
         this.validDays = validDays;
+        signer(signatureAlgorithm(null)); // fail at startup on a bad algorithm or key
     }
 
     public X509Certificate issueCertificate(String subjectName, PublicKey subjectPublicKey) throws Exception {
-        X500Name subject = new X500Name("CN=" + subjectName);
+        byte[] der = issueDer(subjectName, subjectPublicKey);
+        return new JcaX509CertificateConverter().setProvider("BC")
+                .getCertificate(new X509CertificateHolder(der));
+    }
+
+    public byte[] issueDer(String subjectName, PublicKey subjectPublicKey) throws IOException {
+        return issueDer(subjectName, subjectPublicKey, null);
+    }
+
+    public byte[] issueDer(String subjectName, PublicKey subjectPublicKey, KeyType keyType) throws IOException {
+        long now = System.currentTimeMillis();
+        return sign(new Subject(subjectName, subjectPublicKey, keyType), new Date(now),
+                new Date(now + validDays * DAY_MILLIS));
+    }
+
+    public String signatureAlgorithm(KeyType subject) {
+        if (sigAlg != null) return sigAlg;
+        String keyAlg = signingKey.getAlgorithm();
+        if (keyAlg.equals("Ed25519") || keyAlg.equals("Ed448")) return keyAlg;
+        if (keyAlg.equals("EdDSA")) return "Ed25519";
+        String digest = "SHA" + (subject != null ? subject.digestBits() : 512);
+        return digest + (keyAlg.equals("RSA") ? "withRSA" : "withECDSA");
+    }
 
+    // Signs every subject with the calling thread's signer and one validity window; results keep input order.
+    public List<byte[]> issueAll(List<Subject> subjects) throws IOException {
         long now = System.currentTimeMillis();
         Date notBefore = new Date(now);
-        Date notAfter  = new Date(now + validDays * 24L * 60 * 60 * 1000);
+        Date notAfter = new Date(now + validDays * DAY_MILLIS);
+        var out = new ArrayList<byte[]>(subjects.size());
+        for (Subject s : subjects) out.add(sign(s, notBefore, notAfter));
+        return out;
+    }
 
-        BigInteger serial = new BigInteger(160, rnd);
+    private byte[] sign(Subject s, Date notBefore, Date notAfter) throws IOException {
+        BigInteger serial = new BigInteger(160, entropy.random());
+        SubjectPublicKeyInfo spki = SubjectPublicKeyInfo.getInstance(s.publicKey().getEncoded());
+        var builder = new X509v3CertificateBuilder(issuer, serial, notBefore, notAfter,
+                new X500Name("CN=" + s.name()), spki);
+        return builder.build(signer(signatureAlgorithm(s.keyType()))).getEncoded();
+    }
 
-        SubjectPublicKeyInfo spki = SubjectPublicKeyInfo.getInstance(subjectPublicKey.getEncoded());
-        X509v3CertificateBuilder builder = new X509v3CertificateBuilder(
-                issuer, serial, notBefore, notAfter, subject, spki);
+    private ContentSigner signer(String algorithm) {
+        return signers.get().computeIfAbsent(algorithm, alg -> {
+            try {
+                return new JcaContentSignerBuilder(alg).build(signingKey);
+            } catch (OperatorCreationException e) {
+                throw new IllegalArgumentException("Cannot sign with " + alg + ": " + e.getMessage(), e);
+            }
+        });
+    }
 
-        ContentSigner signer = new JcaContentSignerBuilder(sigAlg).build(signingKey);
-        X509CertificateHolder holder = builder.build(signer);
-        return new JcaX509CertificateConverter().setProvider("BC").getCertificate(holder);
+    // keyType may be null when the subject key's strength is not known.
+    public record Subject(String name, PublicKey publicKey, KeyType keyType) {
+        public Subject(String name, PublicKey publicKey) {
+            this(name, publicKey, null);
+        }
     }
 }
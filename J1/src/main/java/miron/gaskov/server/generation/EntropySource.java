@@ -0,0 +1,165 @@
+package miron.gaskov.server.generation;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DrbgParameters;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.SecureRandomSpi;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * One DRBG (SP 800-90A Hash_DRBG, 256-bit strength) per thread for key generation and certificate serials, so
+ * generator threads neither share a lock nor instantiate a SecureRandom per key. A thread's first call seeds
+ * its generator from the system entropy source. After reseedBytes of output, and every reseedMillis, the
+ * reseed thread instantiates a freshly seeded replacement that the owner picks up on its next call; the owner
+ * never waits for entropy again and keeps drawing from the old generator until the replacement is ready.
+ *
+ * Meant for long-lived workers: a virtual thread per task would seed a generator per task.
+ */
+public final class EntropySource implements AutoCloseable {
+    public static final long DEFAULT_RESEED_BYTES = 16L * 1024 * 1024;
+    public static final long DEFAULT_RESEED_MILLIS = 10 * 60 * 1000;
+    private static final int STRENGTH = 256;
+
+    private final long reseedBytes;
+    private final ScheduledExecutorService reseeder;
+    private final ThreadLocal<SecureRandom> randoms = ThreadLocal.withInitial(this::newRandom);
+    private final Set<Generator> generators =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    private final AtomicLong ids = new AtomicLong();
+    private final LongAdder reseeds = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    public EntropySource(long reseedBytes, long reseedMillis) {
+        if (reseedBytes <= 0 || reseedMillis <= 0) throw new IllegalArgumentException("Reseed limits must be positive");
+        this.reseedBytes = reseedBytes;
+        this.reseeder = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "entropy-reseed");
+            t.setDaemon(true);
+            return t;
+        });
+        reseeder.scheduleAtFixedRate(this::reseedAll, reseedMillis, reseedMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Shared by callers that were not handed a source, such as the static GenerationService.generateKeyPair.
+    public static EntropySource defaultSource() {
+        return Default.INSTANCE;
+    }
+
+    // The calling thread's generator; do not hand it to another thread.
+    public SecureRandom random() {
+        return randoms.get();
+    }
+
+    public Stats stats() {
+        return new Stats(generators.size(), reseeds.sum(), bytes.sum());
+    }
+
+    private SecureRandom newRandom() {
+        var g = new Generator(("keyserver/" + ids.incrementAndGet() + "/" + Thread.currentThread().getName())
+                .getBytes(StandardCharsets.UTF_8));
+        generators.add(g);
+        return new Random(g);
+    }
+
+    private void reseedAll() {
+        List<Generator> all;
+        synchronized (generators) {
+            all = new ArrayList<>(generators);
+        }
+        for (Generator g : all) g.reseed();
+    }
+
+    private static SecureRandom instantiate(byte[] personalization) {
+        try {
+            return SecureRandom.getInstance("DRBG",
+                    DrbgParameters.instantiation(STRENGTH, DrbgParameters.Capability.RESEED_ONLY, personalization));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No DRBG of " + STRENGTH + "-bit strength available", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        reseeder.shutdownNow();
+    }
+
+    // generators counts threads that have drawn from this source and are still alive.
+    public record Stats(int generators, long reseeds, long bytes) {
+    }
+
+    private static final class Default {
+        static final EntropySource INSTANCE = new EntropySource(DEFAULT_RESEED_BYTES, DEFAULT_RESEED_MILLIS);
+    }
+
+    private static final class Random extends SecureRandom {
+        Random(Generator generator) {
+            super(generator, null);
+        }
+    }
+
+    private final class Generator extends SecureRandomSpi {
+        private final byte[] personalization;
+        private final AtomicBoolean reseeding = new AtomicBoolean();
+        private volatile SecureRandom replacement;
+        private SecureRandom drbg;
+        private long served;
+
+        Generator(byte[] personalization) {
+            this.personalization = personalization;
+            this.drbg = instantiate(personalization);
+        }
+
+        @Override
+        protected void engineNextBytes(byte[] out) {
+            SecureRandom fresh = replacement;
+            if (fresh != null) {
+                replacement = null;
+                drbg = fresh;
+                served = 0;
+            }
+            drbg.nextBytes(out);
+            bytes.add(out.length);
+            if ((served += out.length) >= reseedBytes) reseed();
+        }
+
+        @Override
+        protected void engineSetSeed(byte[] seed) {
+            drbg.setSeed(seed);
+        }
+
+        @Override
+        protected byte[] engineGenerateSeed(int numBytes) {
+            return drbg.generateSeed(numBytes);
+        }
+
+        void reseed() {
+            if (!reseeding.compareAndSet(false, true)) return;
+            try {
+                reseeder.execute(() -> {
+                    try {
+                        replacement = instantiate(personalization);
+                        reseeds.increment();
+                    } catch (RuntimeException e) {
+                        System.err.println("DRBG reseed failed: " + e.getMessage());
+                    } finally {
+                        reseeding.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                reseeding.set(false);
+            }
+        }
+    }
+}
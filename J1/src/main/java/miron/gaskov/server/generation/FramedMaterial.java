@@ -0,0 +1,96 @@
+package miron.gaskov.server.generation;
+
+import miron.gaskov.common.KeyMaterial;
+import miron.gaskov.common.Pem;
+
+import java.nio.ByteBuffer;
+
+/*
+ * Key and certificate held as DER frames [int len][PKCS#8 key][int len][certificate], the form stored and
+ * sent to clients that ask for FLAG_DER. PEM frames for everyone else are encoded once and kept: GenerationService
+ * calls encodePem() before handing the material to a PEM client, on the generation worker for new material,
+ * and frames(false) falls back to encoding on first use. footprint() counts both forms up front so cache accounting never changes while an
+ * entry is cached.
+ */
+public final class FramedMaterial {
+    static final String KEY_PEM = "PRIVATE KEY";
+    static final String CERT_PEM = "CERTIFICATE";
+
+    private final ByteBuffer der;
+    private final int pemSize;
+    private volatile ByteBuffer pem;
+
+    private FramedMaterial(ByteBuffer der) {
+        this.der = der.asReadOnlyBuffer();
+        int keyLen = der.getInt(der.position());
+        if (keyLen < 0 || keyLen > der.remaining() - 8) throw new IllegalArgumentException("Bad key frame: " + keyLen);
+        int certLen = der.getInt(der.position() + 4 + keyLen);
+        if (certLen < 0 || 8 + keyLen + certLen != der.remaining())
+            throw new IllegalArgumentException("Bad certificate frame: " + certLen);
+        this.pemSize = 8 + Pem.encodedLength(KEY_PEM, keyLen) + Pem.encodedLength(CERT_PEM, certLen);
+    }
+
+    public static FramedMaterial of(byte[] keyDer, byte[] certDer) {
+        return new FramedMaterial(frame(keyDer, certDer));
+    }
+
+    // Takes the PEM form, as written by older stores; the material is re-framed as DER.
+    public static FramedMaterial fromPem(KeyMaterial pem) {
+        return of(Pem.decode(pem.privateKeyPem()), Pem.decode(pem.certificatePem()));
+    }
+
+    public static FramedMaterial wrap(ByteBuffer derFrames) {
+        if (derFrames.remaining() < 8) throw new IllegalArgumentException("Truncated material: " + derFrames.remaining() + " B");
+        return new FramedMaterial(derFrames.slice());
+    }
+
+    public ByteBuffer frames(boolean der) {
+        return der ? this.der.duplicate() : pem().duplicate();
+    }
+
+    public int size(boolean der) {
+        return der ? this.der.remaining() : pemSize;
+    }
+
+    public int footprint() {
+        return der.remaining() + pemSize;
+    }
+
+    public boolean hasPem() {
+        return pem != null;
+    }
+
+    // Builds the PEM frames now if they are not yet; the caller's thread pays for the base64.
+    public FramedMaterial encodePem() {
+        pem();
+        return this;
+    }
+
+    public KeyMaterial toKeyMaterial() {
+        ByteBuffer b = pem().duplicate();
+        byte[] key = new byte[b.getInt()];
+        b.get(key);
+        byte[] crt = new byte[b.getInt()];
+        b.get(crt);
+        return new KeyMaterial(key, crt);
+    }
+
+    // Racing threads may both encode; the results are identical and either one is kept.
+    private ByteBuffer pem() {
+        ByteBuffer p = pem;
+        if (p == null) {
+            ByteBuffer b = der.duplicate();
+            byte[] key = new byte[b.getInt()];
+            b.get(key);
+            byte[] crt = new byte[b.getInt()];
+            b.get(crt);
+            pem = p = frame(Pem.encode(KEY_PEM, key), Pem.encode(CERT_PEM, crt)).asReadOnlyBuffer();
+        }
+        return p;
+    }
+
+    private static ByteBuffer frame(byte[] key, byte[] crt) {
+        ByteBuffer b = ByteBuffer.allocateDirect(4 + key.length + 4 + crt.length);
+        return b.putInt(key.length).put(key).putInt(crt.length).put(crt).flip();
+    }
+}
@@ -0,0 +1,428 @@
+package miron.gaskov.server.generation;
+
+import miron.gaskov.common.OverloadedException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/*
+ * Workers always drain the request lane first. The background lane holds cache-fill work nobody is waiting
+ * for; it only runs while the request lane is empty and is never expired by maxQueueMillis. A worker left idle
+ * because every tenant with queued work is at its running cap stays free for the next tenant that submits.
+ *
+ * The request lane is one queue per tenant (a client address, or a tenant the client declared under it), served by
+ * start-time fair queuing: a task is tagged max(virtual time, its tenant's previous finish tag) and finishes
+ * 1/weight later, and workers take the smallest start tag among tenants below their running cap. A tenant that
+ * queues thousands of names only pushes its own tags into the future; a newcomer starts at the current virtual
+ * time and is next. When the lane is full, the tenant with the longest queue gives up its newest task so a
+ * tenant with a shorter queue is never turned away.
+ *
+ * Both choices come from ordered sets keyed by fields a tenant snapshots when it is (re)inserted, so every
+ * submit, dispatch and finish costs O(log tenants) under the lock however many clients are connected.
+ */
+public final class GenerationScheduler {
+    static final int RETRY_AFTER_MS = 1000;
+    public static final String DEFAULT_TENANT = "-";
+    private static final double WAIT_EWMA = 0.2;
+
+    private final int maxPending;
+    private final long maxQueueNanos;
+    private final TenantPolicy policy;
+    private final Thread[] workers;
+
+    private final Object lock = new Object();
+    private final Map<String, Tenant> tenants = new HashMap<>();
+    // Tenants with queued work and a free running slot, by the start tag of their oldest task.
+    private final TreeSet<Tenant> ready = new TreeSet<>(
+            Comparator.comparingDouble((Tenant t) -> t.readyStart).thenComparingLong(t -> t.readySeq));
+    // Tenants with queued work, by queue length.
+    private final TreeSet<Tenant> byLength = new TreeSet<>(
+            Comparator.comparingInt((Tenant t) -> t.indexedLength).thenComparingLong(t -> t.id));
+    private long tenantIds = 0;
+    private final ArrayDeque<Ticket> background = new ArrayDeque<>();
+    private int queued = 0;
+    private double virtualTime = 0;
+    private long seq = 0;
+    private boolean running = true;
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    public GenerationScheduler(int threads, int maxPending, long maxQueueMillis) {
+        this(threads, maxPending, maxQueueMillis, TenantPolicy.NONE);
+    }
+
+    public GenerationScheduler(int threads, int maxPending, long maxQueueMillis, TenantPolicy policy) {
+        this.maxPending = maxPending;
+        this.maxQueueNanos = maxQueueMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(maxQueueMillis) : Long.MAX_VALUE;
+        this.policy = policy;
+        this.workers = new Thread[Math.max(1, threads)];
+        for (int i = 0; i < workers.length; i++) {
+            Thread t = new Thread(this::workLoop, "keygen-" + i);
+            t.setDaemon(true);
+            workers[i] = t;
+            t.start();
+        }
+    }
+
+    public Ticket submit(Runnable work, Consumer<Throwable> onRejected) {
+        return submit(DEFAULT_TENANT, work, onRejected);
+    }
+
+    public Ticket submit(String tenant, Runnable work, Consumer<Throwable> onRejected) {
+        var ticket = new Ticket(work, onRejected, System.nanoTime());
+        Ticket victim = null;
+        boolean accepted = false;
+        synchronized (lock) {
+            if (running) {
+                Tenant t = tenant(tenant);
+                if (queued >= maxPending) victim = evictFor(t);
+                if (queued < maxPending) {
+                    enqueue(t, ticket);
+                    lock.notify();
+                    accepted = true;
+                } else {
+                    forgetIfIdle(t);
+                }
+            }
+            if (!accepted) ticket.state = State.DONE;
+        }
+        if (victim != null) rejectEvicted(victim);
+        if (!accepted) {
+            rejected.increment();
+            onRejected.accept(new OverloadedException("generation queue full", RETRY_AFTER_MS));
+        }
+        return ticket;
+    }
+
+    // Queues work straight into the background lane; it runs only when no request is waiting.
+    public Ticket submitBackground(Runnable work, Consumer<Throwable> onRejected) {
+        var ticket = new Ticket(work, onRejected, System.nanoTime());
+        synchronized (lock) {
+            if (running && background.size() < maxPending) {
+                ticket.state = State.BACKGROUND;
+                background.addLast(ticket);
+                lock.notify();
+                return ticket;
+            }
+            ticket.state = State.DONE;
+        }
+        rejected.increment();
+        onRejected.accept(new OverloadedException("background queue full", RETRY_AFTER_MS));
+        return ticket;
+    }
+
+    public Stats stats() {
+        synchronized (lock) {
+            return new Stats(queued, background.size(), maxPending, rejected.sum(), expired.sum(), cancelled.sum(),
+                    evicted.sum(), tenants.size());
+        }
+    }
+
+    // Tenants with work queued or running.
+    public List<TenantStats> tenantStats() {
+        long now = System.nanoTime();
+        synchronized (lock) {
+            var list = new ArrayList<TenantStats>(tenants.size());
+            for (Tenant t : tenants.values()) {
+                Ticket head = t.queue.peekFirst();
+                list.add(new TenantStats(t.name, t.weight, t.queue.size(), t.running, t.dispatched,
+                        t.waitNanos / 1e6, head != null ? (now - head.enqueuedAt) / 1e6 : 0));
+            }
+            return list;
+        }
+    }
+
+    public void shutdown(long timeoutMillis) {
+        synchronized (lock) {
+            running = false;
+            background.clear();
+            lock.notifyAll();
+        }
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            for (Thread t : workers) t.join(Math.max(1, deadline - System.currentTimeMillis()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Thread t : workers) t.interrupt();
+    }
+
+    private void workLoop() {
+        while (true) {
+            Ticket ticket;
+            synchronized (lock) {
+                while (running && ready.isEmpty() && (queued > 0 || background.isEmpty())) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                ticket = dispatch();
+                if (ticket == null) ticket = running && queued == 0 ? background.pollFirst() : null;
+                if (ticket == null) return;
+                boolean stale = ticket.state == State.QUEUED && System.nanoTime() - ticket.enqueuedAt > maxQueueNanos;
+                ticket.state = stale ? State.DONE : State.RUNNING;
+                if (stale) {
+                    expired.increment();
+                    finished(ticket);
+                }
+            }
+            if (ticket.state == State.DONE) {
+                ticket.onRejected.accept(new OverloadedException("queued too long", RETRY_AFTER_MS));
+                continue;
+            }
+            try {
+                ticket.work.run();
+            } catch (Throwable t) {
+                ticket.onRejected.accept(t);
+            } finally {
+                synchronized (lock) {
+                    finished(ticket);
+                }
+            }
+        }
+    }
+
+    private Tenant tenant(String name) {
+        return tenants.computeIfAbsent(name != null ? name : DEFAULT_TENANT,
+                n -> new Tenant(n, policy.weight(n), tenantIds++));
+    }
+
+    private void rejectEvicted(Ticket victim) {
+        evicted.increment();
+        victim.onRejected.accept(new OverloadedException("generation queue full", RETRY_AFTER_MS));
+    }
+
+    private void enqueue(Tenant t, Ticket ticket) {
+        ticket.tenant = t;
+        ticket.start = Math.max(virtualTime, t.finish);
+        ticket.seq = seq++;
+        t.finish = ticket.start + 1.0 / t.weight;
+        t.queue.addLast(ticket);
+        ticket.state = State.QUEUED;
+        queued++;
+        reschedule(t);
+    }
+
+    private Ticket dispatch() {
+        Tenant t = ready.pollFirst();
+        if (t == null) return null;
+        t.inReady = false;
+        Ticket ticket = t.queue.pollFirst();
+        queued--;
+        virtualTime = Math.max(virtualTime, ticket.start);
+        t.running++;
+        t.dispatched++;
+        long wait = System.nanoTime() - ticket.enqueuedAt;
+        t.waitNanos = t.dispatched == 1 ? wait : t.waitNanos + (wait - t.waitNanos) * WAIT_EWMA;
+        reschedule(t);
+        if (queued == 0) wakeForBackground();
+        return ticket;
+    }
+
+    private void finished(Ticket ticket) {
+        Tenant t = ticket.tenant;
+        if (t == null) return;
+        ticket.tenant = null;
+        t.running--;
+        reschedule(t);
+        if (t.inReady) lock.notify();
+    }
+
+    // The newest task of the longest queue, if that queue is longer than the newcomer's would become.
+    private Ticket evictFor(Tenant newcomer) {
+        Tenant longest = byLength.isEmpty() ? null : byLength.last();
+        if (longest == null || longest == newcomer || longest.queue.size() <= newcomer.queue.size() + 1) return null;
+        Ticket victim = longest.queue.pollLast();
+        queued--;
+        victim.state = State.DONE;
+        victim.tenant = null;
+        reschedule(longest);
+        return victim;
+    }
+
+    private void remove(Ticket ticket) {
+        Tenant t = ticket.tenant;
+        t.queue.remove(ticket);
+        ticket.tenant = null;
+        queued--;
+        reschedule(t);
+        if (queued == 0) wakeForBackground();
+    }
+
+    // Workers held back from the background lane by queued requests wait until the request lane empties.
+    private void wakeForBackground() {
+        if (!background.isEmpty()) lock.notify();
+    }
+
+    // Keeps both indexes in step with a tenant whose queue or running count changed; forgets idle tenants.
+    private void reschedule(Tenant t) {
+        if (t.inReady) ready.remove(t);
+        if (t.indexedLength > 0) byLength.remove(t);
+        Ticket head = t.queue.peekFirst();
+        t.inReady = head != null && t.running < policy.maxRunning();
+        if (t.inReady) {
+            t.readyStart = head.start;
+            t.readySeq = head.seq;
+            ready.add(t);
+        }
+        t.indexedLength = t.queue.size();
+        if (t.indexedLength > 0) byLength.add(t);
+        forgetIfIdle(t);
+    }
+
+    private void forgetIfIdle(Tenant t) {
+        if (t.queue.isEmpty() && t.running == 0) tenants.remove(t.name, t);
+    }
+
+    private enum State {QUEUED, BACKGROUND, RUNNING, DONE}
+
+    private static final class Tenant {
+        final String name;
+        final double weight;
+        final long id;
+        final ArrayDeque<Ticket> queue = new ArrayDeque<>();
+        double finish;
+        int running;
+        long dispatched;
+        double waitNanos;
+
+        // Index keys as of the last reschedule; the sets must never see them change while the tenant is in.
+        boolean inReady;
+        double readyStart;
+        long readySeq;
+        int indexedLength;
+
+        Tenant(String name, double weight, long id) {
+            this.name = name;
+            this.weight = weight;
+            this.id = id;
+        }
+    }
+
+    public final class Ticket {
+        private final Runnable work;
+        private final Consumer<Throwable> onRejected;
+        private long enqueuedAt;
+        private State state = State.QUEUED;
+        private Tenant tenant;
+        private double start;
+        private long seq;
+
+        private Ticket(Runnable work, Consumer<Throwable> onRejected, long enqueuedAt) {
+            this.work = work;
+            this.onRejected = onRejected;
+            this.enqueuedAt = enqueuedAt;
+        }
+
+        // Removes the task if it has not started yet; onRejected is not called.
+        public boolean cancel() {
+            synchronized (lock) {
+                switch (state) {
+                    case QUEUED -> remove(this);
+                    case BACKGROUND -> background.remove(this);
+                    default -> {
+                        return false;
+                    }
+                }
+                state = State.DONE;
+                cancelled.increment();
+                return true;
+            }
+        }
+
+        // Moves a task that has not started yet to the background lane.
+        public boolean defer() {
+            synchronized (lock) {
+                if (state != State.QUEUED || background.size() >= maxPending) return false;
+                remove(this);
+                background.addLast(this);
+                state = State.BACKGROUND;
+                return true;
+            }
+        }
+
+        /*
+         * Moves a deferred task back to the request lane as the given tenant's newest task, admitted like a new
+         * submit. False if it is not deferred; throws OverloadedException, leaving it deferred, if the request
+         * lane is full and no longer queue can give up a task.
+         */
+        public boolean promote(String tenant) {
+            Ticket victim = null;
+            boolean accepted = false;
+            synchronized (lock) {
+                if (!running || state != State.BACKGROUND) return false;
+                Tenant t = tenant(tenant);
+                if (queued >= maxPending) victim = evictFor(t);
+                if (queued < maxPending) {
+                    background.remove(this);
+                    enqueuedAt = System.nanoTime();
+                    enqueue(t, this);
+                    lock.notify();
+                    accepted = true;
+                } else {
+                    forgetIfIdle(t);
+                }
+            }
+            if (victim != null) rejectEvicted(victim);
+            if (!accepted) {
+                rejected.increment();
+                throw new OverloadedException("generation queue full", RETRY_AFTER_MS);
+            }
+            return true;
+        }
+    }
+
+    /*
+     * maxRunning caps the workers one tenant may hold at once; weights scale a tenant's share of the workers
+     * while several tenants have work queued. Tenants not listed weigh 1. Servers name tenants by client
+     * address, "10.0.0.5" or "10.0.0.5/declared", so weights are keyed the same way.
+     */
+    public record TenantPolicy(int maxRunning, Map<String, Double> weights) {
+        public static final TenantPolicy NONE = new TenantPolicy(Integer.MAX_VALUE, Map.of());
+
+        public TenantPolicy {
+            if (maxRunning <= 0) throw new IllegalArgumentException("Tenant running cap must be positive");
+            weights = Map.copyOf(weights);
+            for (double w : weights.values()) {
+                if (!(w > 0)) throw new IllegalArgumentException("Tenant weights must be positive");
+            }
+        }
+
+        double weight(String tenant) {
+            return weights.getOrDefault(tenant, 1.0);
+        }
+
+        // "name=weight,name=weight"
+        public static Map<String, Double> parseWeights(String spec) {
+            var weights = new HashMap<String, Double>();
+            for (String entry : spec.split(",")) {
+                if (entry.isBlank()) continue;
+                int eq = entry.lastIndexOf('=');
+                if (eq <= 0) throw new IllegalArgumentException("Expected tenant=weight, got " + entry);
+                weights.put(entry.substring(0, eq).trim(), Double.parseDouble(entry.substring(eq + 1).trim()));
+            }
+            return weights;
+        }
+    }
+
+    public record Stats(int queued, int background, int maxPending, long rejected, long expired, long cancelled,
+                        long evicted, int tenants) {
+    }
+
+    public record TenantStats(String tenant, double weight, int queued, int running, long dispatched,
+                              double meanWaitMillis, double oldestWaitMillis) {
+    }
+}
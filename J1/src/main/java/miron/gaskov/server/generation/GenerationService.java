@@ -0,0 +1,352 @@
+package miron.gaskov.server.generation;
+
+import miron.gaskov.common.KeyType;
+import miron.gaskov.common.OverloadedException;
+import miron.gaskov.server.cache.MaterialCache;
+import miron.gaskov.server.cluster.Cluster;
+import miron.gaskov.server.metrics.Metrics;
+import miron.gaskov.server.store.MaterialStore;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.NamedParameterSpec;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class GenerationService {
+    private static final long DEFAULT_CACHE_BYTES = 256L * 1024 * 1024;
+
+    private final ConcurrentHashMap<String, Generation> inflight = new ConcurrentHashMap<>();
+    private final LongAdder abandoned = new LongAdder();
+    private final LongAdder forwarded = new LongAdder();
+
+    private final GenerationScheduler scheduler;
+    private final CertificateService certs;
+    private final KeyType defaultType;
+    private final MaterialCache cache;
+    private final KeyPairPool pool;
+    private final MaterialStore store;
+    private final AbandonPolicy policy;
+    private final Metrics metrics;
+    private final ParallelRsaKeyGenerator rsa;
+    private final Cluster cluster;
+    private final EntropySource entropy;
+
+    public GenerationService(GenerationScheduler scheduler, CertificateService certs, KeyType defaultType) {
+        this(scheduler, certs, defaultType, new MaterialCache(DEFAULT_CACHE_BYTES), null, null, AbandonPolicy.DROP,
+                new Metrics(), null, null, EntropySource.defaultSource());
+    }
+
+    public GenerationService(GenerationScheduler scheduler, CertificateService certs, KeyType defaultType,
+                                MaterialCache cache, KeyPairPool pool, MaterialStore store, AbandonPolicy policy,
+                                Metrics metrics, ParallelRsaKeyGenerator rsa, Cluster cluster, EntropySource entropy) {
+        this.scheduler = Objects.requireNonNull(scheduler);
+        this.certs = Objects.requireNonNull(certs);
+        this.defaultType = Objects.requireNonNull(defaultType);
+        this.cache = Objects.requireNonNull(cache);
+        this.pool = pool;
+        this.store = store;
+        this.policy = Objects.requireNonNull(policy);
+        this.metrics = Objects.requireNonNull(metrics);
+        this.rsa = rsa;
+        this.cluster = cluster;
+        this.entropy = Objects.requireNonNull(entropy);
+    }
+
+    public static KeyPair generateKeyPair(KeyType type) throws GeneralSecurityException {
+        return generateKeyPair(type, EntropySource.defaultSource().random());
+    }
+
+    public static KeyPair generateKeyPair(KeyType type, SecureRandom random) throws GeneralSecurityException {
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance(type.algorithm());
+        switch (type.algorithm()) {
+            case "RSA" -> kpg.initialize(type.bits(), random);
+            case "EC" -> kpg.initialize(new ECGenParameterSpec(type.curve()), random);
+            default -> kpg.initialize(new NamedParameterSpec(type.algorithm()), random);
+        }
+        return kpg.generateKeyPair();
+    }
+
+    // The parallel prime search only pays off while nothing else is queued; under load every core is busy anyway.
+    private KeyPair newKeyPair(KeyType type) throws GeneralSecurityException {
+        if (rsa != null && type.algorithm().equals("RSA") && scheduler.stats().queued() == 0)
+            return rsa.generate(type.bits());
+        return generateKeyPair(type, entropy.random());
+    }
+
+    /*
+     * Every caller gets its own copy of the shared generation future. Cancelling that copy (the session went
+     * away) releases the caller's interest; once nobody is left, a generation that has not started yet is
+     * dropped or moved to the background lane according to the abandon policy.
+     */
+    public CompletableFuture<FramedMaterial> get(String name) {
+        return get(name, null);
+    }
+
+    // Material is cached, stored and deduplicated per "type/name", so one name can hold a key of every type.
+    public CompletableFuture<FramedMaterial> get(String name, KeyType type) {
+        return get(name, type, false);
+    }
+
+    // In cluster mode a name owned by another node is fetched from it unless the request was already forwarded.
+    public CompletableFuture<FramedMaterial> get(String name, KeyType type, boolean forwarded) {
+        return get(name, type, forwarded, null);
+    }
+
+    // Generation work is queued fairly per tenant: the client's declared tenant or its address.
+    public CompletableFuture<FramedMaterial> get(String name, KeyType type, boolean forwarded, String tenant) {
+        return get(name, type, forwarded, tenant, false);
+    }
+
+    /*
+     * Unless der is set the caller will send PEM frames, and the material it gets has them built already. New
+     * material is encoded by the generation worker. A cached or stored entry that only holds DER so far is
+     * encoded once here, on the caller's thread, which for the nio engine is the reactor; queueing that behind
+     * generations would cost a cache hit far more than the base64 does. A caller attaching in the instant
+     * between the worker's check and completion gets its PEM built on first use.
+     */
+    public CompletableFuture<FramedMaterial> get(String name, KeyType type, boolean forwarded, String tenant,
+                                                 boolean der) {
+        return lookup(name, type, false, forwarded, tenant, !der);
+    }
+
+    /*
+     * Fills the cache for a name nobody has asked for yet. The generation starts in the scheduler's background
+     * lane and is promoted as soon as a live request attaches to it; it never counts as a waiter itself.
+     * In cluster mode names owned by other nodes complete with null; their owners preload them. Preloaded
+     * material gets PEM frames too, the form clients receive unless they ask for DER.
+     */
+    public CompletableFuture<FramedMaterial> preload(String name, KeyType type) {
+        return lookup(name, type, true, false, null, true);
+    }
+
+    private CompletableFuture<FramedMaterial> lookup(String name, KeyType type, boolean preload, boolean forwarded,
+                                                     String tenant, boolean pem) {
+        KeyType keyType = type != null ? type : defaultType;
+        String key = keyType.label() + "/" + name;
+        boolean remote = cluster != null && !forwarded && !cluster.owns(name);
+        if (remote && preload) return CompletableFuture.completedFuture(null);
+        while (true) {
+            Generation running = inflight.get(key);
+            if (running != null) {
+                if (preload) return running.future.copy();
+                CompletableFuture<FramedMaterial> mine = attach(key, running, tenant, pem);
+                if (mine != null) return mine;
+                continue;
+            }
+
+            FramedMaterial cached = preload ? cache.peek(key) : cache.get(key);
+            if (cached != null) return CompletableFuture.completedFuture(withPem(cached, pem));
+
+            FramedMaterial stored = store != null && !remote ? store.get(key) : null;
+            if (stored != null) {
+                cache.put(key, withPem(stored, pem));
+                return CompletableFuture.completedFuture(stored);
+            }
+
+            var generation = new Generation(preload);
+            generation.pem = pem;
+            if (inflight.putIfAbsent(key, generation) != null) continue;
+
+            // A generation for this key may have completed between the cache miss and putIfAbsent.
+            cached = cache.peek(key);
+            if (cached != null) {
+                inflight.remove(key, generation);
+                generation.future.complete(withPem(cached, generation.pem));
+                return generation.future;
+            }
+
+            return remote ? forward(key, name, keyType, tenant, generation) : start(key, name, keyType, tenant, generation);
+        }
+    }
+
+    // The owner's answer is cached here too, so repeat requests stay local; only the owner persists it.
+    private CompletableFuture<FramedMaterial> forward(String key, String name, KeyType keyType, String tenant,
+                                                      Generation generation) {
+        var future = generation.future;
+        future.whenComplete((material, ex) -> {
+            if (ex == null) cache.put(key, material);
+            inflight.remove(key, generation);
+        });
+        CompletableFuture<FramedMaterial> mine = attach(key, generation, tenant, generation.pem);
+        forwarded.increment();
+        // The owner sends DER; PEM is built on the peer connection's thread, before any reactor sees it.
+        cluster.forward(name, keyType, tenant).whenComplete((material, ex) -> {
+            if (ex == null) future.complete(withPem(material, generation.pem));
+            else future.completeExceptionally(ex);
+        });
+        return mine;
+    }
+
+    private CompletableFuture<FramedMaterial> start(String key, String name, KeyType keyType, String tenant,
+                                                    Generation generation) {
+        var future = generation.future;
+        future.whenComplete((material, ex) -> {
+            if (ex == null) {
+                // Evicting this before it is durable would hand the next request for the name a different key.
+                cache.pin(key, material);
+                if (store != null) store.append(key, material, () -> cache.unpin(key, material));
+            }
+            inflight.remove(key, generation);
+        });
+
+        CompletableFuture<FramedMaterial> mine = generation.preload ? future.copy()
+                : attach(key, generation, null, generation.pem);
+        long queuedAt = System.nanoTime();
+        Runnable work = () -> {
+            metrics.queueWait().recordSince(queuedAt);
+            try {
+                long t = System.nanoTime();
+                KeyPair kp = pool != null && keyType == defaultType ? pool.poll() : null;
+                if (kp == null) kp = newKeyPair(keyType);
+                metrics.keyPair().recordSince(t);
+
+                t = System.nanoTime();
+                byte[] certDer = certs.issueDer(name, kp.getPublic(), keyType);
+                metrics.signing().recordSince(t);
+
+                t = System.nanoTime();
+                var material = FramedMaterial.of(kp.getPrivate().getEncoded(), certDer);
+                metrics.framing().recordSince(t);
+
+                if (generation.pem) {
+                    t = System.nanoTime();
+                    material.encodePem();
+                    metrics.pem().recordSince(t);
+                }
+                future.complete(material);
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        };
+        synchronized (generation) {
+            // A live request may have attached to a preload since it became visible in inflight.
+            if (generation.preload && generation.waiters == 0) {
+                generation.deferred = true;
+                generation.ticket = scheduler.submitBackground(work, future::completeExceptionally);
+            } else {
+                generation.ticket = scheduler.submit(generation.preload ? generation.promotedBy : tenant, work,
+                        future::completeExceptionally);
+            }
+        }
+        return mine;
+    }
+
+    /*
+     * A deferred generation goes back to the request lane on the account of the tenant that asked for it. If the
+     * lane is full it stays deferred and this caller alone is told to retry, as a new submit would be.
+     */
+    private CompletableFuture<FramedMaterial> attach(String key, Generation generation, String tenant, boolean pem) {
+        synchronized (generation) {
+            if (generation.dropped) return null;
+            if (pem) generation.pem = true;
+            if (generation.deferred) {
+                try {
+                    if (generation.ticket.promote(tenant)) generation.deferred = false;
+                } catch (OverloadedException e) {
+                    return CompletableFuture.failedFuture(e);
+                }
+            }
+            generation.waiters++;
+            if (generation.ticket == null && generation.promotedBy == null) generation.promotedBy = tenant;
+        }
+        CompletableFuture<FramedMaterial> mine = generation.future.copy();
+        mine.whenComplete((material, ex) -> {
+            if (!(ex instanceof CancellationException)) return;
+            synchronized (generation) {
+                if (--generation.waiters == 0) abandon(key, generation);
+            }
+        });
+        return mine;
+    }
+
+    // A preload outlives its live waiters: it goes back to the background lane instead of being dropped.
+    private void abandon(String key, Generation generation) {
+        // Forwarded: the owner finishes it and the result is cached here. Not submitted yet: start() picks the
+        // lane from the waiters left when it does.
+        if (generation.ticket == null) return;
+        AbandonPolicy policy = generation.preload ? AbandonPolicy.DEFER : this.policy;
+        if (policy == AbandonPolicy.DROP && generation.ticket.cancel()) {
+            generation.dropped = true;
+            inflight.remove(key, generation);
+            generation.future.cancel(false);
+        } else if (policy == AbandonPolicy.DEFER && !generation.deferred && generation.ticket.defer()) {
+            generation.deferred = true;
+        } else {
+            return;
+        }
+        abandoned.increment();
+    }
+
+    private FramedMaterial withPem(FramedMaterial material, boolean pem) {
+        if (pem && !material.hasPem()) {
+            long t = System.nanoTime();
+            material.encodePem();
+            metrics.pem().recordSince(t);
+        }
+        return material;
+    }
+
+    public KeyType defaultType() {
+        return defaultType;
+    }
+
+    public long abandoned() {
+        return abandoned.sum();
+    }
+
+    public long forwarded() {
+        return forwarded.sum();
+    }
+
+    public KeyPairPool.Stats poolStats() {
+        return pool != null ? pool.stats() : null;
+    }
+
+    public MaterialCache.Stats cacheStats() {
+        return cache.stats();
+    }
+
+    public GenerationScheduler.Stats schedulerStats() {
+        return scheduler.stats();
+    }
+
+    public void stop() {
+        if (pool != null) pool.stop();
+        scheduler.shutdown(10_000);
+        if (rsa != null) rsa.close();
+        if (cluster != null) cluster.close();
+        if (store != null) store.close();
+    }
+
+    private static final class Generation {
+        final CompletableFuture<FramedMaterial> future = new CompletableFuture<>();
+        final boolean preload;
+        GenerationScheduler.Ticket ticket;
+        String promotedBy;
+        int waiters = 0;
+        boolean deferred = false;
+        boolean dropped = false;
+        // Some waiter will send PEM; read by the worker without the lock.
+        volatile boolean pem;
+
+        Generation(boolean preload) {
+            this.preload = preload;
+        }
+    }
+
+    public enum AbandonPolicy {
+        DROP, DEFER;
+
+        public static AbandonPolicy parse(String s) {
+            return valueOf(s.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+}
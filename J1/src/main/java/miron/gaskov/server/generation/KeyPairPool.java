@@ -0,0 +1,103 @@
+package miron.gaskov.server.generation;
+
+import java.security.KeyPair;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Key pairs generated ahead of demand. Refills run one key at a time in the scheduler's background lane, so
+ * they only take workers no request is waiting for; parallelism caps how many are queued or running at once.
+ */
+public final class KeyPairPool {
+    private final ArrayBlockingQueue<KeyPair> ready;
+    private final int lowWatermark;
+    private final int highWatermark;
+    private final int parallelism;
+    private final GenerationScheduler scheduler;
+    private final Callable<KeyPair> generator;
+
+    private final Object lock = new Object();
+    private int inFlight = 0;
+    private long refused = 0;
+    private boolean filling = true;
+    private volatile boolean running = true;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public KeyPairPool(int capacity, int lowWatermark, int highWatermark, int parallelism,
+                       GenerationScheduler scheduler, Callable<KeyPair> generator) {
+        if (capacity <= 0) throw new IllegalArgumentException("Pool capacity must be positive: " + capacity);
+        if (lowWatermark < 0 || lowWatermark > highWatermark || highWatermark > capacity)
+            throw new IllegalArgumentException("Invalid pool watermarks: low=" + lowWatermark +
+                    ", high=" + highWatermark + ", capacity=" + capacity);
+        this.ready = new ArrayBlockingQueue<>(capacity);
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.parallelism = Math.max(1, parallelism);
+        this.scheduler = scheduler;
+        this.generator = generator;
+        refill();
+    }
+
+    public KeyPair poll() {
+        KeyPair kp = ready.poll();
+        if (kp != null) hits.increment();
+        else misses.increment();
+        if (ready.size() < lowWatermark) refill();
+        return kp;
+    }
+
+    public Stats stats() {
+        return new Stats(ready.size(), hits.sum(), misses.sum());
+    }
+
+    public void stop() {
+        synchronized (lock) {
+            running = false;
+        }
+    }
+
+    // A full background lane stops this round; the next poll below the low watermark tries again.
+    private void refill() {
+        synchronized (lock) {
+            long before = refused;
+            while (running && refused == before && inFlight < parallelism && shouldGenerate()) {
+                inFlight++;
+                scheduler.submitBackground(this::generate, this::refused);
+            }
+        }
+    }
+
+    private void generate() {
+        KeyPair kp = null;
+        try {
+            if (running) kp = generator.call();
+        } catch (Exception e) {
+            System.err.println("Key pool generation failed: " + e);
+        }
+        synchronized (lock) {
+            inFlight--;
+            if (kp != null) ready.offer(kp);
+        }
+        if (kp != null) refill();
+    }
+
+    private void refused(Throwable t) {
+        synchronized (lock) {
+            inFlight--;
+            refused++;
+        }
+    }
+
+    private boolean shouldGenerate() {
+        int depth = ready.size() + inFlight;
+        if (!filling && depth < lowWatermark) filling = true;
+        if (depth >= highWatermark) filling = false;
+        return filling;
+    }
+
+    public record Stats(int depth, long hits, long misses) {
+    }
+}
@@ -0,0 +1,148 @@
+package miron.gaskov.server.generation;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.InvalidParameterException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.security.spec.RSAPrivateCrtKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Searches for p and q at the same time, each on its own share of the ForkJoin workers. Every worker tests
+ * independent random candidates until one of them completes the prime's future; the others notice on their
+ * next candidate and return, so a found prime frees its workers immediately.
+ *
+ * The assembled key is checked the way FIPS 186-4 B.3.1 asks for: both primes at least sqrt(2) * 2^(k-1)
+ * (the top two bits are set), |p - q| > 2^(nlen/2 - 100), gcd(e, p - 1) = gcd(e, q - 1) = 1 and
+ * d > 2^(nlen/2), followed by a pairwise-consistency round trip through the CRT private key.
+ */
+public final class ParallelRsaKeyGenerator implements AutoCloseable {
+    private static final BigInteger E = RSAKeyGenParameterSpec.F4;
+    private static final BigInteger SMALL_PRIMES = smallPrimeProduct(2000);
+    private static final int CERTAINTY = 100;
+
+    private final ForkJoinPool pool;
+    private final int workersPerPrime;
+    private final EntropySource entropy;
+
+    public ParallelRsaKeyGenerator(int threads) {
+        this(threads, EntropySource.defaultSource());
+    }
+
+    public ParallelRsaKeyGenerator(int threads, EntropySource entropy) {
+        if (threads < 1) throw new IllegalArgumentException("Prime search needs at least one thread: " + threads);
+        this.pool = new ForkJoinPool(threads, p -> {
+            var t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("rsa-search-" + t.getPoolIndex());
+            return t;
+        }, null, false);
+        this.workersPerPrime = Math.max(1, threads / 2);
+        this.entropy = entropy;
+    }
+
+    public int threads() {
+        return pool.getParallelism();
+    }
+
+    public KeyPair generate(int bits) throws GeneralSecurityException {
+        if (bits < 1024 || bits % 2 != 0) throw new InvalidParameterException("Unsupported RSA key size: " + bits);
+        int half = bits / 2;
+        while (true) {
+            var p = search(half);
+            var q = search(half);
+            BigInteger pp, qq;
+            try {
+                pp = p.get();
+                qq = q.get();
+            } catch (InterruptedException e) {
+                p.cancel(false);
+                q.cancel(false);
+                Thread.currentThread().interrupt();
+                throw new GeneralSecurityException("Prime search interrupted");
+            } catch (ExecutionException e) {
+                p.cancel(false);
+                q.cancel(false);
+                throw new GeneralSecurityException("Prime search failed", e.getCause());
+            }
+            KeyPair kp = assemble(pp.max(qq), pp.min(qq), bits);
+            if (kp != null) return kp;
+        }
+    }
+
+    private CompletableFuture<BigInteger> search(int bits) {
+        var found = new CompletableFuture<BigInteger>();
+        for (int i = 0; i < workersPerPrime; i++) {
+            pool.execute(() -> {
+                try {
+                    var random = entropy.random();
+                    while (!found.isDone()) {
+                        BigInteger candidate = new BigInteger(bits, random).setBit(bits - 1).setBit(bits - 2).setBit(0);
+                        if (isPrimeCandidate(candidate)) found.complete(candidate);
+                    }
+                } catch (Throwable t) {
+                    found.completeExceptionally(t);
+                }
+            });
+        }
+        return found;
+    }
+
+    // Trial division by one gcd against the small-prime product weeds out most composites before Miller-Rabin.
+    private static boolean isPrimeCandidate(BigInteger c) {
+        if (!c.gcd(SMALL_PRIMES).equals(BigInteger.ONE)) return false;
+        if (c.subtract(BigInteger.ONE).mod(E).signum() == 0) return false;
+        return c.isProbablePrime(CERTAINTY);
+    }
+
+    // Returns null when the pair fails a FIPS check; the caller then searches for a fresh pair.
+    private static KeyPair assemble(BigInteger p, BigInteger q, int bits) throws GeneralSecurityException {
+        if (p.subtract(q).bitLength() <= bits / 2 - 100) return null;
+        BigInteger n = p.multiply(q);
+        if (n.bitLength() != bits) return null;
+
+        BigInteger p1 = p.subtract(BigInteger.ONE);
+        BigInteger q1 = q.subtract(BigInteger.ONE);
+        BigInteger lcm = p1.divide(p1.gcd(q1)).multiply(q1);
+        BigInteger d = E.modInverse(lcm);
+        if (d.bitLength() <= bits / 2) return null;
+
+        BigInteger dp = d.mod(p1);
+        BigInteger dq = d.mod(q1);
+        BigInteger qInv = q.modInverse(p);
+
+        BigInteger m = BigInteger.TWO;
+        BigInteger c = m.modPow(E, n);
+        BigInteger m1 = c.modPow(dp, p);
+        BigInteger m2 = c.modPow(dq, q);
+        BigInteger h = qInv.multiply(m1.subtract(m2)).mod(p);
+        if (!m2.add(h.multiply(q)).equals(m)) throw new GeneralSecurityException("RSA pairwise consistency check failed");
+
+        var kf = KeyFactory.getInstance("RSA");
+        return new KeyPair(kf.generatePublic(new RSAPublicKeySpec(n, E)),
+                kf.generatePrivate(new RSAPrivateCrtKeySpec(n, E, d, p, q, dp, dq, qInv)));
+    }
+
+    private static BigInteger smallPrimeProduct(int limit) {
+        BigInteger product = BigInteger.ONE;
+        for (int i = 3; i < limit; i += 2) {
+            if (BigInteger.valueOf(i).isProbablePrime(CERTAINTY)) product = product.multiply(BigInteger.valueOf(i));
+        }
+        return product;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+        try {
+            pool.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
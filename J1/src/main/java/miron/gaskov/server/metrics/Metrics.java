@@ -0,0 +1,223 @@
+package miron.gaskov.server.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+public final class Metrics {
+    private static final String PREFIX = "keyserver_";
+
+    private final Histogram queueWait = histogram("keygen_queue_seconds",
+            "Time a generation task waited for a worker");
+    private final Histogram keyPair = histogram("keygen_keypair_seconds",
+            "Key pair generation, including pool hits");
+    private final Histogram signing = histogram("keygen_sign_seconds", "Certificate issuance");
+    private final Histogram pem = histogram("keygen_pem_seconds", "PEM encoding of key and certificate");
+    private final Histogram framing = histogram("keygen_frame_seconds", "Framing material into a response buffer");
+    private final Histogram requests = histogram("request_seconds",
+            "From a decoded request to its response being queued for writing");
+    private final Histogram socketWrites = histogram("socket_write_seconds",
+            "Time spent writing to a socket per write-ready event");
+
+    private final LongAdder requestCount = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder overloaded = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder sessionsOpened = new LongAdder();
+    private final LongAdder sessionsClosed = new LongAdder();
+    private final LongAdder readTimeouts = new LongAdder();
+    private final LongAdder generationTimeouts = new LongAdder();
+    private final LongAdder writeTimeouts = new LongAdder();
+    private final LongAdder connectionsRejected = new LongAdder();
+    private final LongAdder inboxPosts = new LongAdder();
+    private final LongAdder inboxOverflows = new LongAdder();
+    private final LongAdder wakeups = new LongAdder();
+    private final LongAdder waitersCoalesced = new LongAdder();
+
+    private final List<Histogram> histograms = new ArrayList<>();
+    private final Map<String, Gauge> gauges = new LinkedHashMap<>();
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    public Metrics() {
+        histograms.addAll(List.of(queueWait, keyPair, signing, pem, framing, requests, socketWrites));
+        counter("requests_total", "Requests received (a batch counts once per name)", requestCount);
+        counter("errors_total", "Requests answered with an error", errors);
+        counter("overloaded_total", "Requests answered with overloaded, retry later", overloaded);
+        counter("bytes_in_total", "Bytes read from client sockets", bytesIn);
+        counter("bytes_out_total", "Bytes written to client sockets", bytesOut);
+        counter("sessions_total", "Client connections accepted", sessionsOpened);
+        counter("read_timeouts_total", "Sessions closed waiting for a request", readTimeouts);
+        counter("generation_timeouts_total", "Sessions closed waiting for generation", generationTimeouts);
+        counter("write_timeouts_total", "Sessions closed because the client did not read its response", writeTimeouts);
+        counter("connections_rejected_total", "Connections refused at the connection cap", connectionsRejected);
+        counter("reactor_events_total", "Events posted to reactor inboxes, mostly completed generations", inboxPosts);
+        counter("reactor_inbox_overflows_total", "Events that found the reactor's ring full", inboxOverflows);
+        counter("reactor_wakeups_total", "Selector wakeups issued to deliver inbox events", wakeups);
+        counter("reactor_waiters_coalesced_total",
+                "Requests that joined another session's wait for the same name on the same reactor", waitersCoalesced);
+        gauge("sessions_active", "Client connections currently open",
+                () -> sessionsOpened.sum() - sessionsClosed.sum());
+    }
+
+    private static Histogram histogram(String name, String help) {
+        return new Histogram(PREFIX + name, help);
+    }
+
+    public Histogram queueWait() {
+        return queueWait;
+    }
+
+    public Histogram keyPair() {
+        return keyPair;
+    }
+
+    public Histogram signing() {
+        return signing;
+    }
+
+    public Histogram pem() {
+        return pem;
+    }
+
+    public Histogram framing() {
+        return framing;
+    }
+
+    public Histogram requests() {
+        return requests;
+    }
+
+    public Histogram socketWrites() {
+        return socketWrites;
+    }
+
+    public void request() {
+        requestCount.increment();
+    }
+
+    public void error() {
+        errors.increment();
+    }
+
+    public void overloaded() {
+        overloaded.increment();
+    }
+
+    public void bytesIn(long n) {
+        bytesIn.add(n);
+    }
+
+    public void bytesOut(long n) {
+        bytesOut.add(n);
+    }
+
+    public void sessionOpened() {
+        sessionsOpened.increment();
+    }
+
+    public void sessionClosed() {
+        sessionsClosed.increment();
+    }
+
+    public void readTimeout() {
+        readTimeouts.increment();
+    }
+
+    public void generationTimeout() {
+        generationTimeouts.increment();
+    }
+
+    public void writeTimeout() {
+        writeTimeouts.increment();
+    }
+
+    public void connectionRejected() {
+        connectionsRejected.increment();
+    }
+
+    public void inboxPost() {
+        inboxPosts.increment();
+    }
+
+    public void inboxOverflow() {
+        inboxOverflows.increment();
+    }
+
+    public void wakeup() {
+        wakeups.increment();
+    }
+
+    public void waiterCoalesced() {
+        waitersCoalesced.increment();
+    }
+
+    public synchronized void gauge(String name, String help, DoubleSupplier value) {
+        gauges.put(PREFIX + name, new Gauge(help, "gauge", value));
+    }
+
+    // One series per key of the map, labelled label="key"; exported to Prometheus only.
+    public synchronized void gauges(String name, String help, String label,
+                                    Supplier<? extends Map<String, ? extends Number>> values) {
+        families.put(PREFIX + name, new Family(help, label, values));
+    }
+
+    // For values that only ever grow; exported with the Prometheus counter type.
+    public synchronized void counter(String name, String help, LongSupplier value) {
+        gauges.put(PREFIX + name, new Gauge(help, "counter", value::getAsLong));
+    }
+
+    private void counter(String name, String help, LongAdder adder) {
+        counter(name, help, adder::sum);
+    }
+
+    public synchronized String prometheus() {
+        var out = new StringBuilder(4096);
+        for (var e : gauges.entrySet()) {
+            Gauge g = e.getValue();
+            out.append("# HELP ").append(e.getKey()).append(' ').append(g.help).append('\n');
+            out.append("# TYPE ").append(e.getKey()).append(' ').append(g.type).append('\n');
+            out.append(e.getKey()).append(' ').append(Histogram.format(g.value.getAsDouble())).append('\n');
+        }
+        for (var e : families.entrySet()) {
+            Family f = e.getValue();
+            out.append("# HELP ").append(e.getKey()).append(' ').append(f.help).append('\n');
+            out.append("# TYPE ").append(e.getKey()).append(" gauge\n");
+            for (var v : f.values.get().entrySet()) {
+                out.append(e.getKey()).append('{').append(f.label).append("=\"").append(escape(v.getKey())).append("\"} ")
+                        .append(Histogram.format(v.getValue().doubleValue())).append('\n');
+            }
+        }
+        for (Histogram h : histograms) h.writePrometheus(out);
+        return out.toString();
+    }
+
+    // Flat view for JMX: counters and gauges as-is, histograms as count, mean and bucketed p50/p99.
+    synchronized Map<String, Double> snapshot() {
+        var values = new LinkedHashMap<String, Double>();
+        for (var e : gauges.entrySet()) values.put(e.getKey(), e.getValue().value.getAsDouble());
+        for (Histogram h : histograms) {
+            long count = h.count();
+            values.put(h.name() + "_count", (double) count);
+            values.put(h.name() + "_mean", count == 0 ? 0 : h.sumSeconds() / count);
+            values.put(h.name() + "_p50", h.quantileSeconds(0.5));
+            values.put(h.name() + "_p99", h.quantileSeconds(0.99));
+        }
+        return values;
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private record Gauge(String help, String type, DoubleSupplier value) {
+    }
+
+    private record Family(String help, String label, Supplier<? extends Map<String, ? extends Number>> values) {
+    }
+}
@@ -0,0 +1,29 @@
+package miron.gaskov.server.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+public final class MetricsHttpServer {
+    private MetricsHttpServer() {
+    }
+
+    // Serves GET /metrics in the Prometheus text format on the loopback interface only.
+    public static HttpServer start(Metrics metrics, int port) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        http.createContext("/metrics", exchange -> {
+            byte[] body = metrics.prometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        http.start();
+        System.out.println("Metrics on http://127.0.0.1:" + http.getAddress().getPort() + "/metrics");
+        return http;
+    }
+}
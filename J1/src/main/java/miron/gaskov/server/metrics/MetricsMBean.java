@@ -0,0 +1,69 @@
+package miron.gaskov.server.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.Objects;
+
+public final class MetricsMBean implements DynamicMBean {
+    private final Metrics metrics;
+
+    private MetricsMBean(Metrics metrics) {
+        this.metrics = Objects.requireNonNull(metrics);
+    }
+
+    public static void register(Metrics metrics, int port) throws JMException {
+        var name = new ObjectName("miron.gaskov:type=KeyServer,port=" + port);
+        var server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(name)) server.unregisterMBean(name);
+        server.registerMBean(new MetricsMBean(metrics), name);
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Double v = metrics.snapshot().get(attribute);
+        if (v == null) throw new AttributeNotFoundException(attribute);
+        return v;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        var snapshot = metrics.snapshot();
+        var list = new AttributeList();
+        for (String a : attributes) if (snapshot.containsKey(a)) list.add(new Attribute(a, snapshot.get(a)));
+        return list;
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        var names = metrics.snapshot().keySet();
+        var attrs = new MBeanAttributeInfo[names.size()];
+        int i = 0;
+        for (String n : names) attrs[i++] = new MBeanAttributeInfo(n, "double", n, true, false, false);
+        return new MBeanInfo(getClass().getName(), "Key server metrics", attrs, null,
+                new MBeanOperationInfo[0], null);
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName), "No operations on key server metrics");
+    }
+}
@@ -0,0 +1,81 @@
+package miron.gaskov.server.preload;
+
+import miron.gaskov.common.KeyType;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/*
+ * Line-oriented admin commands on the loopback interface, one reply line per command:
+ *   preload <names file> [key type]   start a background preload
+ *   status                            progress of the current preload
+ *   cancel                            stop submitting further names
+ */
+public final class AdminSocket {
+    private final Preloader preloader;
+    private final ServerSocket server;
+
+    private AdminSocket(Preloader preloader, int port) throws IOException {
+        this.preloader = preloader;
+        this.server = new ServerSocket(port, 16, InetAddress.getLoopbackAddress());
+    }
+
+    public static AdminSocket start(Preloader preloader, int port) throws IOException {
+        var admin = new AdminSocket(preloader, port);
+        Thread.ofVirtual().name("admin").start(admin::acceptLoop);
+        System.out.println("Admin commands on 127.0.0.1:" + admin.server.getLocalPort());
+        return admin;
+    }
+
+    private void acceptLoop() {
+        try {
+            while (true) {
+                Socket s = server.accept();
+                Thread.ofVirtual().name("admin-conn").start(() -> serve(s));
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void serve(Socket s) {
+        try (s; var in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             var out = new PrintWriter(s.getOutputStream(), true, StandardCharsets.UTF_8)) {
+            for (String line; (line = in.readLine()) != null; ) {
+                if (!line.isBlank()) out.println(execute(line.trim().split("\\s+")));
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private String execute(String[] cmd) {
+        try {
+            return switch (cmd[0]) {
+                case "preload" -> {
+                    if (cmd.length < 2) yield "ERR usage: preload <names file> [key type]";
+                    KeyType type = cmd.length > 2 ? KeyType.parse(cmd[2]) : null;
+                    yield "OK " + preloader.start(Path.of(cmd[1]), type) + " names queued";
+                }
+                case "status" -> {
+                    var st = preloader.stats();
+                    yield "OK " + (st.file() == null ? "idle" : st.file() + (st.running() ? st.cancelled() ? " cancelling" : " running" : " finished") +
+                            " done=" + st.done() + " failed=" + st.failed() + " resumed=" + st.resumed() +
+                            " remaining=" + st.remaining());
+                }
+                case "cancel" -> {
+                    preloader.cancel();
+                    yield "OK";
+                }
+                default -> "ERR unknown command: " + cmd[0];
+            };
+        } catch (IOException | RuntimeException e) {
+            return "ERR " + e.getMessage();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package miron.gaskov.server.preload;
+
+import miron.gaskov.common.KeyType;
+import miron.gaskov.server.generation.GenerationService;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Walks a names file and pre-generates material for every name through GenerationService.preload, which runs
+ * in the scheduler's background lane. Submissions are paced to ratePerSecond and capped at MAX_OUTSTANDING.
+ *
+ * With resume enabled the key type and the number of leading lines that are fully done for it are kept in
+ * "<names file>.progress"; a restarted run for the same type skips them. Only worth it when material outlives
+ * the process, i.e. with a store.
+ *
+ * A job counts as running until its outstanding preloads have drained and its progress is saved, cancelled or
+ * not, so a new job never races an old one for the progress file.
+ */
+public final class Preloader {
+    private static final int MAX_OUTSTANDING = 64;
+    private static final long REPORT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final GenerationService generation;
+    private final double ratePerSecond;
+    private final boolean resume;
+    private Job current;
+
+    public Preloader(GenerationService generation, double ratePerSecond, boolean resume) {
+        this.generation = Objects.requireNonNull(generation);
+        this.ratePerSecond = ratePerSecond;
+        this.resume = resume;
+    }
+
+    // Starts preloading in the background; returns the number of names still to do.
+    public synchronized int start(Path names, KeyType keyType) throws IOException {
+        if (current != null && current.running) throw new IllegalStateException("Preload of " + current.file + " still running");
+        List<String> all;
+        try (var lines = Files.lines(names, StandardCharsets.UTF_8)) {
+            all = lines.map(String::trim).filter(l -> !l.isEmpty() && !l.startsWith("#")).toList();
+        }
+        KeyType type = keyType != null ? keyType : generation.defaultType();
+        current = new Job(names, all, type, resume ? readProgress(names, type) : 0);
+        Thread t = new Thread(current::run, "preload");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+        return all.size() - current.resumedFrom;
+    }
+
+    public synchronized void cancel() {
+        if (current != null) current.cancelled = true;
+    }
+
+    public synchronized Stats stats() {
+        return current != null ? current.stats() : new Stats(null, false, false, 0, 0, 0, 0);
+    }
+
+    private static Path progressFile(Path names) {
+        return names.resolveSibling(names.getFileName() + ".progress");
+    }
+
+    // "<key type> <lines done>"; progress recorded for another type (or without one) starts from the top.
+    private static int readProgress(Path names, KeyType keyType) {
+        try {
+            String[] parts = Files.readString(progressFile(names)).trim().split("\\s+");
+            if (parts.length != 2 || !parts[0].equals(keyType.label())) return 0;
+            return Integer.parseInt(parts[1]);
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private final class Job {
+        final Path file;
+        final List<String> names;
+        final KeyType keyType;
+        final int resumedFrom;
+        final Semaphore outstanding = new Semaphore(MAX_OUTSTANDING);
+        final AtomicLong done = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        volatile boolean running = true;
+        volatile boolean cancelled = false;
+
+        // Lines past the watermark that succeeded; a failed line holds the watermark so a resumed run retries it.
+        private final BitSet finished = new BitSet();
+        private int watermark;
+
+        Job(Path file, List<String> names, KeyType keyType, int resumedFrom) {
+            this.file = file;
+            this.names = names;
+            this.keyType = keyType;
+            this.resumedFrom = Math.min(resumedFrom, names.size());
+            this.watermark = this.resumedFrom;
+        }
+
+        void run() {
+            long interval = ratePerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond) : 0;
+            long start = System.nanoTime();
+            long next = start;
+            long nextReport = start + REPORT_NANOS;
+            System.out.println("Preloading " + (names.size() - resumedFrom) + " names from " + file +
+                    (resumedFrom > 0 ? " (resuming after " + resumedFrom + ")" : ""));
+            try {
+                for (int i = resumedFrom; i < names.size() && !cancelled; i++) {
+                    if (interval > 0) {
+                        long wait = next - System.nanoTime();
+                        if (wait > 0) LockSupport.parkNanos(wait);
+                        next = Math.max(next + interval, System.nanoTime() - interval);
+                    }
+                    outstanding.acquire();
+                    int index = i;
+                    generation.preload(names.get(i), keyType).whenComplete((material, ex) -> {
+                        if (ex == null) {
+                            done.incrementAndGet();
+                            finish(index);
+                        } else {
+                            failed.incrementAndGet();
+                        }
+                        outstanding.release();
+                    });
+                    if (System.nanoTime() >= nextReport) {
+                        report(start);
+                        nextReport = System.nanoTime() + REPORT_NANOS;
+                    }
+                }
+                outstanding.acquire(MAX_OUTSTANDING);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                report(start);
+                running = false;
+            }
+        }
+
+        private synchronized void finish(int index) {
+            finished.set(index);
+            while (finished.get(watermark)) finished.clear(watermark++);
+        }
+
+        private void report(long start) {
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long completed = done.get() + failed.get();
+            System.out.printf("Preload %s: %d/%d (%d failed), %.1f/s%n", file.getFileName(), completed,
+                    names.size() - resumedFrom, failed.get(), seconds > 0 ? completed / seconds : 0.0);
+            saveProgress();
+        }
+
+        private void saveProgress() {
+            if (!resume) return;
+            int mark;
+            synchronized (this) {
+                mark = watermark;
+            }
+            try {
+                Path progress = progressFile(file);
+                Path tmp = progress.resolveSibling(progress.getFileName() + ".tmp");
+                Files.writeString(tmp, keyType.label() + " " + mark + "\n");
+                Files.move(tmp, progress, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.err.println("Could not save preload progress for " + file + ": " + e);
+            }
+        }
+
+        Stats stats() {
+            return new Stats(file.toString(), running, cancelled, names.size(), resumedFrom, done.get(), failed.get());
+        }
+    }
+
+    public record Stats(String file, boolean running, boolean cancelled, int total, int resumed, long done,
+                        long failed) {
+        public long remaining() {
+            return Math.max(0, total - resumed - done - failed);
+        }
+    }
+}
@@ -0,0 +1,525 @@
+package miron.gaskov.server.store;
+
+import miron.gaskov.common.KeyMaterial;
+import miron.gaskov.common.KeyType;
+import miron.gaskov.server.generation.FramedMaterial;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+public final class MaterialStore implements AutoCloseable {
+    static final String LOG_FILE = "material.log";
+    static final String INDEX_FILE = "material.idx";
+
+    private static final int LOG_MAGIC = 0x4B4D4C32;     // KML2, DER material
+    private static final int PEM_LOG_MAGIC = 0x4B4D4C47; // KMLG, PEM material, rewritten as DER on open
+    private static final int RECORD_MAGIC = 0x4B4D5231;  // KMR1
+    private static final int INDEX_MAGIC = 0x4B4D4931;   // KMI1
+    private static final int LOG_HEADER = 12;
+    private static final int RECORD_HEADER = 12;
+    private static final int MAX_RECORD = 1 << 20;
+    private static final long CHUNK = 1L << 30;
+    private static final int INDEX_EVERY = 1024;
+    private static final long RETRY_MIN_MILLIS = 100;
+    private static final long RETRY_MAX_MILLIS = 10_000;
+    // Records hold unencrypted private keys: only the owner may list the directory or read the files.
+    private static final String DIR_MODE = "rwx------";
+    private static final String FILE_MODE = "rw-------";
+
+    private final Path dir;
+    private final Path logPath;
+    private final Path indexPath;
+    private final KeyType bareNameType;
+    private FileChannel log;
+    private long generation;
+    private boolean pem;
+
+    private volatile View view;
+    private long end;
+    private long deadRecords;
+    private int appendsSinceIndex;
+
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed = false;
+    private final LongAdder writeFailures = new LongAdder();
+    private volatile int retrying;
+
+    private MaterialStore(Path dir, KeyType bareNameType) {
+        this.dir = dir;
+        this.bareNameType = bareNameType;
+        this.logPath = dir.resolve(LOG_FILE);
+        this.indexPath = dir.resolve(INDEX_FILE);
+        this.writer = new Thread(this::writeLoop, "material-store-writer");
+        this.writer.setDaemon(true);
+    }
+
+    public static MaterialStore open(Path dir) throws IOException {
+        return open(dir, null);
+    }
+
+    /*
+     * Records are keyed "type/name". Stores written before that keyed them by bare name; those are re-keyed to
+     * bareNameType, the type they were generated with, by a compaction on open. A typed record for the same
+     * name was written later and wins.
+     */
+    public static MaterialStore open(Path dir, KeyType bareNameType) throws IOException {
+        if (posix(dir)) {
+            Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(DIR_MODE)));
+            Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString(DIR_MODE));
+        } else {
+            Files.createDirectories(dir);
+        }
+        var store = new MaterialStore(dir, bareNameType);
+        store.recover();
+        store.writer.start();
+        return store;
+    }
+
+    /*
+     * Views share one offsets map, and the writer publishes a remapped view before it adds the offsets of the
+     * records it appended. An offset past the end of the view read here therefore belongs to a newer view,
+     * which is already published.
+     */
+    public FramedMaterial get(String name) {
+        View v = view;
+        Long offset = v.offsets.get(name);
+        if (offset == null) return null;
+        if (offset + RECORD_HEADER > v.size) v = view;
+        ByteBuffer rec = v.record(offset);
+        if (rec == null || !name.equals(readName(rec))) return null;
+        return FramedMaterial.wrap(rec);
+    }
+
+    public boolean contains(String name) {
+        return view.offsets.containsKey(name);
+    }
+
+    public int size() {
+        return view.offsets.size();
+    }
+
+    public Stats stats() {
+        return new Stats(view.offsets.size(), writeFailures.sum(), retrying);
+    }
+
+    public void append(String name, FramedMaterial material) {
+        append(name, material, null);
+    }
+
+    // durable runs on the writer thread once the record is forced and readable through get().
+    public void append(String name, FramedMaterial material, Runnable durable) {
+        if (closed) return;
+        queue.add(new Pending(name, material, durable));
+    }
+
+    public void compact() {
+        if (closed) return;
+        queue.add(Pending.COMPACT);
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        queue.add(Pending.STOP);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void recover() throws IOException {
+        log = FileChannel.open(logPath, Set.of(StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE), fileAttributes());
+        // Logs written by earlier versions were created with the umask.
+        if (posix(dir)) Files.setPosixFilePermissions(logPath, PosixFilePermissions.fromString(FILE_MODE));
+        if (log.size() < LOG_HEADER) {
+            generation = System.nanoTime() ^ System.currentTimeMillis() << 20;
+            log.truncate(0);
+            log.write(logHeader(generation), 0);
+            log.force(true);
+        } else {
+            ByteBuffer h = ByteBuffer.allocate(LOG_HEADER);
+            log.read(h, 0);
+            h.flip();
+            int magic = h.getInt();
+            if (magic != LOG_MAGIC && magic != PEM_LOG_MAGIC) throw new IOException("Not a material log: " + logPath);
+            pem = magic == PEM_LOG_MAGIC;
+            generation = h.getLong();
+        }
+
+        var offsets = new ConcurrentHashMap<String, Long>();
+        long from = loadIndex(offsets);
+        View v = View.map(log, offsets);
+
+        long pos = from;
+        long size = log.size();
+        while (pos < size) {
+            int len = validRecordLength(v, pos, size);
+            if (len < 0) break;
+            ByteBuffer rec = v.record(pos);
+            if (offsets.put(readName(rec), pos) != null) deadRecords++;
+            pos += RECORD_HEADER + len;
+        }
+        if (pos < size) {
+            System.err.println("Material store: truncating torn tail at " + pos + " (" + (size - pos) + " B dropped)");
+            log.truncate(pos);
+            log.force(true);
+            v = View.map(log, offsets);
+        }
+        end = pos;
+        view = v;
+        System.out.println("Material store: " + offsets.size() + " records loaded from " + dir +
+                " (scanned " + (pos - from) + " B past index)");
+
+        if (from < end) writeIndex();
+        if (pem || deadRecords > offsets.size() || hasBareNames(offsets)) compactNow();
+    }
+
+    private long loadIndex(Map<String, Long> offsets) {
+        if (!Files.exists(indexPath)) return LOG_HEADER;
+        try {
+            ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+            if (b.remaining() < 28) return LOG_HEADER;
+            var crc = new CRC32();
+            crc.update(b.array(), 0, b.limit() - 4);
+            if ((int) crc.getValue() != b.getInt(b.limit() - 4)) return LOG_HEADER;
+            if (b.getInt() != INDEX_MAGIC || b.getLong() != generation) return LOG_HEADER;
+            long covered = b.getLong();
+            int count = b.getInt();
+            if (covered < LOG_HEADER || covered > log.size()) return LOG_HEADER;
+            var loaded = new HashMap<String, Long>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String name = readName(b);
+                long off = b.getLong();
+                if (off < LOG_HEADER || off >= covered) return LOG_HEADER;
+                loaded.put(name, off);
+            }
+            offsets.putAll(loaded);
+            return covered;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Material store: ignoring unreadable index: " + e);
+            return LOG_HEADER;
+        }
+    }
+
+    private static int validRecordLength(View v, long pos, long size) {
+        if (size - pos < RECORD_HEADER) return -1;
+        ByteBuffer h = v.slice(pos, RECORD_HEADER);
+        if (h.getInt() != RECORD_MAGIC) return -1;
+        int len = h.getInt();
+        int crc = h.getInt();
+        if (len <= 0 || len > MAX_RECORD || size - pos - RECORD_HEADER < len) return -1;
+        var c = new CRC32();
+        c.update(v.slice(pos + RECORD_HEADER, len));
+        return (int) c.getValue() == crc ? len : -1;
+    }
+
+    /*
+     * Records whose append failed (disk full, I/O error) are not durable, so their owners keep them pinned.
+     * They are retried ahead of newer records with a backoff doubling up to RETRY_MAX_MILLIS; records arriving
+     * meanwhile wait behind them. Closing makes one last attempt.
+     */
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        List<Pending> failed = new ArrayList<>();
+        long backoff = 0;
+        long retryAt = 0;
+        while (true) {
+            try {
+                if (failed.isEmpty()) {
+                    batch.add(queue.take());
+                } else {
+                    Pending p = queue.poll(Math.max(0, retryAt - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (p != null) batch.add(p);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch);
+            boolean stop = false;
+            boolean compact = false;
+            for (Pending p : batch) {
+                if (p == Pending.STOP) stop = true;
+                else if (p == Pending.COMPACT) compact = true;
+                else failed.add(p);
+            }
+            batch.clear();
+            if (!failed.isEmpty() && (stop || System.nanoTime() >= retryAt)) {
+                try {
+                    appendAll(failed);
+                    failed.clear();
+                    backoff = 0;
+                } catch (IOException e) {
+                    writeFailures.increment();
+                    discardTail();
+                    backoff = Math.min(RETRY_MAX_MILLIS, Math.max(RETRY_MIN_MILLIS, backoff * 2));
+                    retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff);
+                    System.err.println("Material store write failed, retrying " + failed.size() + " records in " +
+                            backoff + " ms: " + e);
+                }
+            }
+            retrying = failed.size();
+            try {
+                if (compact || deadRecords > Math.max(INDEX_EVERY, view.offsets.size())) compactNow();
+                else if (stop || appendsSinceIndex >= INDEX_EVERY) writeIndex();
+            } catch (IOException e) {
+                System.err.println("Material store write failed: " + e);
+            }
+            if (stop) {
+                if (!failed.isEmpty())
+                    System.err.println("Material store: closing with " + failed.size() + " records not persisted");
+                try {
+                    log.close();
+                } catch (IOException ignored) {
+                }
+                return;
+            }
+        }
+    }
+
+    // A failed append may have left part of a record past end; the retry writes over it from end anyway.
+    private void discardTail() {
+        try {
+            if (log.size() > end) log.truncate(end);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void appendAll(List<Pending> records) throws IOException {
+        long pos = end;
+        long[] at = new long[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            ByteBuffer rec = encode(records.get(i).name, records.get(i).material);
+            at[i] = pos;
+            while (rec.hasRemaining()) pos += log.write(rec, pos);
+        }
+        log.force(false);
+        end = pos;
+
+        View v = view.remap(log);
+        view = v;
+        for (int i = 0; i < records.size(); i++) {
+            if (v.offsets.put(records.get(i).name, at[i]) != null) deadRecords++;
+        }
+        appendsSinceIndex += records.size();
+        for (Pending p : records) {
+            if (p.durable != null) p.durable.run();
+        }
+    }
+
+    private void compactNow() throws IOException {
+        View old = view;
+        long newGeneration = generation + 1;
+        Path tmp = dir.resolve(LOG_FILE + ".compact");
+        var offsets = new ConcurrentHashMap<String, Long>();
+        int migrated = 0;
+        try (FileChannel out = createPrivate(tmp)) {
+            long pos = 0;
+            ByteBuffer header = logHeader(newGeneration);
+            while (header.hasRemaining()) pos += out.write(header, pos);
+            for (Map.Entry<String, Long> e : old.offsets.entrySet()) {
+                String name = e.getKey();
+                if (isBare(name)) {
+                    name = bareNameType.label() + "/" + name;
+                    if (old.offsets.containsKey(name)) continue;
+                    migrated++;
+                }
+                ByteBuffer h = old.slice(e.getValue(), RECORD_HEADER);
+                h.getInt();
+                int len = h.getInt();
+                ByteBuffer rec = old.slice(e.getValue(), RECORD_HEADER + len);
+                if (pem || !name.equals(e.getKey())) rec = encode(name, material(old.record(e.getValue())));
+                offsets.put(name, pos);
+                while (rec.hasRemaining()) pos += out.write(rec, pos);
+            }
+            out.force(true);
+        }
+        Files.move(tmp, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        long before = end;
+        log.close();
+        log = FileChannel.open(logPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        generation = newGeneration;
+        end = log.size();
+        deadRecords = 0;
+        view = View.map(log, offsets);
+        writeIndex();
+        if (pem) System.out.println("Material store: converted " + offsets.size() + " PEM records to DER");
+        pem = false;
+        if (migrated > 0) System.out.println("Material store: re-keyed " + migrated + " records to " + bareNameType.label());
+        System.out.println("Material store compacted: " + before + " B -> " + end + " B, " + offsets.size() + " records");
+    }
+
+    private void writeIndex() throws IOException {
+        View v = view;
+        var entries = new ArrayList<>(v.offsets.entrySet());
+        int size = 8 + 8 + 4 + 4 + 4;
+        for (Map.Entry<String, Long> e : entries) size += 2 + e.getKey().getBytes(StandardCharsets.UTF_8).length + 8;
+
+        ByteBuffer b = ByteBuffer.allocate(size);
+        b.putInt(INDEX_MAGIC).putLong(generation).putLong(end).putInt(entries.size());
+        for (Map.Entry<String, Long> e : entries) {
+            byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+            b.putShort((short) name.length).put(name).putLong(e.getValue());
+        }
+        var crc = new CRC32();
+        crc.update(b.array(), 0, b.position());
+        b.putInt((int) crc.getValue());
+
+        Path tmp = dir.resolve(INDEX_FILE + ".tmp");
+        try (FileChannel out = createPrivate(tmp)) {
+            b.flip();
+            while (b.hasRemaining()) out.write(b);
+        }
+        Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        appendsSinceIndex = 0;
+    }
+
+    // A leftover from a crash may carry other permissions, and they only apply to a file being created.
+    private FileChannel createPrivate(Path path) throws IOException {
+        Files.deleteIfExists(path);
+        return FileChannel.open(path, Set.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE),
+                fileAttributes());
+    }
+
+    private FileAttribute<?>[] fileAttributes() {
+        return posix(dir)
+                ? new FileAttribute<?>[]{PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(FILE_MODE))}
+                : new FileAttribute<?>[0];
+    }
+
+    private static boolean posix(Path path) {
+        return path.getFileSystem().supportedFileAttributeViews().contains("posix");
+    }
+
+    private static ByteBuffer logHeader(long generation) {
+        return ByteBuffer.allocate(LOG_HEADER).putInt(LOG_MAGIC).putLong(generation).flip();
+    }
+
+    private static ByteBuffer encode(String name, FramedMaterial material) {
+        byte[] n = name.getBytes(StandardCharsets.UTF_8);
+        int len = 2 + n.length + material.size(true);
+        if (len > MAX_RECORD) throw new IllegalArgumentException("Record too large for '" + name + "': " + len);
+        ByteBuffer b = ByteBuffer.allocate(RECORD_HEADER + len);
+        b.putInt(RECORD_MAGIC).putInt(len).putInt(0);
+        b.putShort((short) n.length).put(n).put(material.frames(true));
+        var crc = new CRC32();
+        crc.update(b.array(), RECORD_HEADER, len);
+        b.putInt(8, (int) crc.getValue());
+        return b.flip();
+    }
+
+    private boolean hasBareNames(Map<String, Long> offsets) {
+        if (bareNameType == null) return false;
+        for (String name : offsets.keySet()) {
+            if (isBare(name)) return true;
+        }
+        return false;
+    }
+
+    // Names may contain '/' themselves; a record is typed only if it starts with a type label.
+    private boolean isBare(String name) {
+        if (bareNameType == null) return false;
+        int slash = name.indexOf('/');
+        if (slash > 0) {
+            for (KeyType t : KeyType.values()) {
+                if (name.regionMatches(0, t.label(), 0, slash) && t.label().length() == slash) return false;
+            }
+        }
+        return true;
+    }
+
+    private FramedMaterial material(ByteBuffer rec) {
+        if (pem) return fromPem(rec);
+        readName(rec);
+        return FramedMaterial.wrap(rec);
+    }
+
+    private static FramedMaterial fromPem(ByteBuffer rec) {
+        readName(rec);
+        byte[] key = new byte[rec.getInt()];
+        rec.get(key);
+        byte[] crt = new byte[rec.getInt()];
+        rec.get(crt);
+        return FramedMaterial.fromPem(new KeyMaterial(key, crt));
+    }
+
+    private static String readName(ByteBuffer b) {
+        byte[] n = new byte[b.getShort() & 0xFFFF];
+        b.get(n);
+        return new String(n, StandardCharsets.UTF_8);
+    }
+
+    public record Stats(int records, long writeFailures, int retrying) {
+    }
+
+    private record Pending(String name, FramedMaterial material, Runnable durable) {
+        static final Pending STOP = new Pending(null, null, null);
+        static final Pending COMPACT = new Pending(null, null, null);
+    }
+
+    private record View(MappedByteBuffer[] chunks, long size, ConcurrentHashMap<String, Long> offsets) {
+        static View map(FileChannel ch, ConcurrentHashMap<String, Long> offsets) throws IOException {
+            long size = ch.size();
+            int n = (int) ((size + CHUNK - 1) / CHUNK);
+            var chunks = new MappedByteBuffer[n];
+            for (int i = 0; i < n; i++) chunks[i] = mapChunk(ch, i, size);
+            return new View(chunks, size, offsets);
+        }
+
+        View remap(FileChannel ch) throws IOException {
+            long newSize = ch.size();
+            if (newSize == size) return this;
+            int n = (int) ((newSize + CHUNK - 1) / CHUNK);
+            var next = new MappedByteBuffer[n];
+            for (int i = 0; i < n; i++) {
+                boolean complete = i < chunks.length && chunks[i].capacity() == chunkLength(i, newSize);
+                next[i] = complete ? chunks[i] : mapChunk(ch, i, newSize);
+            }
+            return new View(next, newSize, offsets);
+        }
+
+        private static long chunkLength(int i, long size) {
+            return Math.min(CHUNK + MAX_RECORD + RECORD_HEADER, size - i * CHUNK);
+        }
+
+        private static MappedByteBuffer mapChunk(FileChannel ch, int i, long size) throws IOException {
+            return ch.map(FileChannel.MapMode.READ_ONLY, i * CHUNK, chunkLength(i, size));
+        }
+
+        ByteBuffer slice(long pos, int len) {
+            int c = (int) (pos / CHUNK);
+            if (c >= chunks.length || pos + len > size) return null;
+            return chunks[c].slice((int) (pos - c * CHUNK), len);
+        }
+
+        ByteBuffer record(long pos) {
+            ByteBuffer h = slice(pos, RECORD_HEADER);
+            if (h == null || h.getInt() != RECORD_MAGIC) return null;
+            int len = h.getInt();
+            return slice(pos + RECORD_HEADER, len);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package miron.gaskov.client;
+
+import miron.gaskov.common.KeyMaterial;
+import miron.gaskov.common.Protocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Timeout(30)
+class KeyClientTest {
+
+    private FakeServer server;
+
+    @AfterEach
+    void stop() throws IOException {
+        if (server != null) server.close();
+    }
+
+    @Test
+    void duplicateNamesShareOneRequestOverBoundedPool() throws Exception {
+        server = new FakeServer(name -> 200);
+        try (var client = new KeyClient(KeyClientOptions.of("127.0.0.1", server.port()).withConnections(2))) {
+            var results = new ArrayList<CompletableFuture<KeyMaterial>>();
+            for (int i = 0; i < 200; i++) results.add(client.fetch("n" + (i % 10)));
+            for (int i = 0; i < 200; i++) {
+                KeyMaterial km = results.get(i).get(10, TimeUnit.SECONDS);
+                assertEquals("key-n" + (i % 10), new String(km.privateKeyPem(), StandardCharsets.US_ASCII));
+                assertEquals("crt-n" + (i % 10), new String(km.certificatePem(), StandardCharsets.US_ASCII));
+            }
+            assertEquals(10, server.requests.get());
+            assertTrue(server.connections.get() <= 2, "connections: " + server.connections.get());
+            assertEquals(0, client.inFlight());
+        }
+    }
+
+    @Test
+    void tenantsDoNotShareARequest() throws Exception {
+        server = new FakeServer(name -> 200);
+        try (var client = new KeyClient(KeyClientOptions.of("127.0.0.1", server.port()))) {
+            var a = client.fetchFrames("n", null, (byte) 0, "a");
+            var b = client.fetchFrames("n", null, (byte) 0, "b");
+            var again = client.fetchFrames("n", null, (byte) 0, "a");
+            assertNotNull(a.get(10, TimeUnit.SECONDS));
+            assertNotNull(b.get(10, TimeUnit.SECONDS));
+            assertNotNull(again.get(10, TimeUnit.SECONDS));
+            assertEquals(2, server.requests.get());
+        }
+    }
+
+    @Test
+    void overloadIsRetriedButServerErrorIsNot() throws Exception {
+        server = new FakeServer(name -> 0);
+        server.overloadFirst.put("busy", true);
+        var opts = KeyClientOptions.of("127.0.0.1", server.port()).withRetries(2, 10, 100);
+        try (var client = new KeyClient(opts)) {
+            KeyMaterial km = client.fetch("busy").get(10, TimeUnit.SECONDS);
+            assertEquals("crt-busy", new String(km.certificatePem(), StandardCharsets.US_ASCII));
+            assertEquals(2, server.requests.get());
+
+            var e = assertThrows(ExecutionException.class, () -> client.fetch("bad").get(10, TimeUnit.SECONDS));
+            assertInstanceOf(KeyClient.ServerException.class, e.getCause());
+            assertEquals(3, server.requests.get());
+        }
+    }
+
+    @Test
+    void timedOutAttemptsAreRetriedThenReported() throws Exception {
+        server = new FakeServer(name -> name.equals("never") ? -1 : 0);
+        var opts = KeyClientOptions.of("127.0.0.1", server.port()).withTimeouts(1_000, 100).withRetries(1, 10, 10);
+        try (var client = new KeyClient(opts)) {
+            var e = assertThrows(ExecutionException.class, () -> client.fetch("never").get(10, TimeUnit.SECONDS));
+            assertInstanceOf(TimeoutException.class, e.getCause());
+            assertEquals(2, server.requests.get());
+            assertNotNull(client.fetch("soon").get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    // Answers GET frames after delay(name) ms, never when the delay is negative; "bad" gets STATUS_ERROR.
+    private static final class FakeServer implements AutoCloseable {
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger connections = new AtomicInteger();
+        final Map<String, Boolean> overloadFirst = new ConcurrentHashMap<>();
+        private final ServerSocket socket = new ServerSocket(0);
+        private final ToIntFunction<String> delay;
+
+        FakeServer(ToIntFunction<String> delay) throws IOException {
+            this.delay = delay;
+            Thread.ofVirtual().start(this::acceptLoop);
+        }
+
+        int port() {
+            return socket.getLocalPort();
+        }
+
+        private void acceptLoop() {
+            try {
+                while (true) {
+                    Socket s = socket.accept();
+                    connections.incrementAndGet();
+                    Thread.ofVirtual().start(() -> serve(s));
+                }
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void serve(Socket s) {
+            try (s) {
+                var in = new DataInputStream(s.getInputStream());
+                var out = new DataOutputStream(s.getOutputStream());
+                in.readShort();
+                out.write(Protocol.hello().array());
+                while (true) {
+                    int len = in.readInt();
+                    in.readByte();
+                    int id = in.readInt();
+                    byte[] body = in.readNBytes(len - 5);
+                    String name = new String(body, 4, body.length - 4, StandardCharsets.UTF_8);
+                    requests.incrementAndGet();
+                    int ms = delay.applyAsInt(name);
+                    if (ms < 0) continue;
+                    Thread.ofVirtual().start(() -> reply(out, id, name, ms));
+                }
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void reply(DataOutputStream out, int id, String name, int ms) {
+            try {
+                Thread.sleep(ms);
+                ByteBuffer frame;
+                if (overloadFirst.remove(name) != null) {
+                    frame = ByteBuffer.allocate(Protocol.RESPONSE_HEADER + 4);
+                    frame.putInt(frame.capacity() - 4).put(Protocol.RESULT).putInt(id).put(Protocol.STATUS_OVERLOADED)
+                            .putInt(20);
+                } else if (name.equals("bad")) {
+                    frame = ByteBuffer.allocate(Protocol.RESPONSE_HEADER + 5);
+                    frame.putInt(frame.capacity() - 4).put(Protocol.RESULT).putInt(id).put(Protocol.STATUS_ERROR)
+                            .putShort((short) 3).put("bad".getBytes(StandardCharsets.UTF_8));
+                } else {
+                    byte[] key = ("key-" + name).getBytes(StandardCharsets.US_ASCII);
+                    byte[] crt = ("crt-" + name).getBytes(StandardCharsets.US_ASCII);
+                    frame = ByteBuffer.allocate(Protocol.RESPONSE_HEADER + 8 + key.length + crt.length);
+                    frame.putInt(frame.capacity() - 4).put(Protocol.RESULT).putInt(id).put(Protocol.STATUS_OK)
+                            .putInt(key.length).put(key).putInt(crt.length).put(crt);
+                }
+                synchronized (out) {
+                    out.write(frame.array());
+                    out.flush();
+                }
+            } catch (IOException | InterruptedException ignored) {
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package miron.gaskov.client;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void smallValuesAreExact() {
+        var h = new LatencyHistogram();
+        for (int v = 1; v <= 100; v++) h.record(v);
+        assertEquals(100, h.count());
+        assertEquals(50, h.percentile(50));
+        assertEquals(99, h.percentile(99));
+        assertEquals(100, h.percentile(100));
+        assertEquals(50.5, h.mean(), 1e-9);
+    }
+
+    @Test
+    void largeValuesStayWithinBucketPrecision() {
+        var h = new LatencyHistogram();
+        for (long v = 1; v <= 1_000_000; v++) h.record(v * 1000);
+        for (double p : new double[]{50, 90, 99, 99.9}) {
+            double expected = p / 100 * 1_000_000_000L;
+            assertEquals(expected, h.percentile(p), expected / 64, "p" + p);
+        }
+        assertEquals(1_000_000_000L, h.max());
+        assertEquals(1_000_000_000L, h.percentile(100));
+    }
+
+    @Test
+    void emptyHistogramReportsZero() {
+        var h = new LatencyHistogram();
+        assertEquals(0, h.percentile(99));
+        assertEquals(0.0, h.mean());
+    }
+}
@@ -0,0 +1,43 @@
+package miron.gaskov.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferPoolTest {
+
+    @Test
+    void reusesReleasedBuffers() {
+        var pool = new BufferPool(1024, 1024 * 1024);
+        ByteBuffer a = pool.acquire();
+        assertTrue(a.isDirect());
+        assertEquals(1024, a.capacity());
+        a.put((byte) 1);
+        pool.release(a);
+
+        ByteBuffer b = pool.acquire();
+        assertSame(a, b);
+        assertEquals(0, b.position());
+        assertEquals(1, pool.stats().inUse());
+        assertEquals(64 * 1024, pool.stats().allocatedBytes());
+    }
+
+    @Test
+    void fallsBackToHeapAtTheCap() {
+        var pool = new BufferPool(1024, 2048);
+        ByteBuffer a = pool.acquire();
+        ByteBuffer b = pool.acquire();
+        ByteBuffer c = pool.acquire();
+        assertTrue(a.isDirect() && b.isDirect());
+        assertFalse(c.isDirect());
+        assertEquals(2048, pool.stats().allocatedBytes());
+        assertEquals(1, pool.stats().fallbacks());
+
+        pool.release(c);
+        pool.release(a);
+        assertEquals(1, pool.stats().inUse());
+        assertEquals(1, pool.stats().free());
+    }
+}
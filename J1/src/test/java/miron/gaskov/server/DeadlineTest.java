@@ -0,0 +1,129 @@
+package miron.gaskov.server;
+
+import miron.gaskov.common.KeyType;
+import miron.gaskov.common.Protocol;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeadlineTest {
+    private static final int READ_TIMEOUT_MS = 500;
+    private static int port;
+    private static int vthreadsPort;
+
+    @BeforeAll
+    static void startServers() throws Exception {
+        port = startServer("nio");
+        vthreadsPort = startServer("vthreads");
+    }
+
+    private static int startServer(String engine) throws Exception {
+        int port = TestServers.findFreePort();
+        String[] args = {"--port", String.valueOf(port), "--key-type", "ec-p256", "--signing-key", "signer.key",
+                "--read-timeout-ms", String.valueOf(READ_TIMEOUT_MS), "--max-connections", "4", "--engine", engine};
+        TestServers.startMain("deadline-server-" + engine, args);
+        TestServers.awaitListening(port);
+        return port;
+    }
+
+    @Test
+    @Timeout(10)
+    void silentClientIsClosed() throws Exception {
+        assertClosedWhenSilent(port);
+    }
+
+    @Test
+    @Timeout(10)
+    void virtualThreadEngineClosesSilentAndTricklingClients() throws Exception {
+        assertClosedWhenSilent(vthreadsPort);
+        assertClosedWhileTrickling(vthreadsPort);
+    }
+
+    private static void assertClosedWhenSilent(int port) throws Exception {
+        try (Socket s = new Socket("127.0.0.1", port)) {
+            long start = System.nanoTime();
+            assertEquals(-1, s.getInputStream().read());
+            assertTrue((System.nanoTime() - start) / 1_000_000 >= READ_TIMEOUT_MS - 50);
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void tricklingClientIsClosedDespiteProgress() throws Exception {
+        assertClosedWhileTrickling(port);
+    }
+
+    private static void assertClosedWhileTrickling(int port) throws Exception {
+        try (Socket s = new Socket("127.0.0.1", port)) {
+            long start = System.nanoTime();
+            try {
+                for (int i = 0; i < 40; i++) {
+                    s.getOutputStream().write('x');
+                    s.getOutputStream().flush();
+                    Thread.sleep(50);
+                }
+            } catch (IOException expected) {
+            }
+            assertEquals(-1, readOrEof(s.getInputStream()));
+            assertTrue((System.nanoTime() - start) / 1_000_000 < 2 * READ_TIMEOUT_MS + 500);
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void connectionsBeyondTheCapAreRefused() throws Exception {
+        Thread.sleep(2 * READ_TIMEOUT_MS); // let the other tests' sessions expire
+        List<Socket> held = new ArrayList<>();
+        try {
+            for (int i = 0; i < 4; i++) held.add(new Socket("127.0.0.1", port));
+            Thread.sleep(100);
+            try (Socket extra = new Socket("127.0.0.1", port)) {
+                long start = System.nanoTime();
+                assertEquals(-1, readOrEof(extra.getInputStream()));
+                assertTrue((System.nanoTime() - start) / 1_000_000 < READ_TIMEOUT_MS);
+            }
+        } finally {
+            for (Socket s : held) s.close();
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void getFramesLongerThanAnyNameAreRefused() throws Exception {
+        Thread.sleep(2 * READ_TIMEOUT_MS); // let the other tests' sessions expire
+        for (int p : new int[]{port, vthreadsPort}) {
+            try (Socket s = new Socket("127.0.0.1", p)) {
+                var out = new DataOutputStream(s.getOutputStream());
+                out.write(Protocol.hello().array());
+                // A slow generation still pending must not hold the connection open.
+                out.write(Protocol.get(1, "pending-" + p, KeyType.RSA_8192).array());
+                out.writeInt(Protocol.MAX_GET + 1);
+                out.write(Protocol.GET);
+                long start = System.nanoTime();
+                out.flush();
+                // Closed at once, hello or not, instead of waiting out the read deadline for the rest.
+                var in = s.getInputStream();
+                while (readOrEof(in) >= 0) {
+                }
+                assertTrue((System.nanoTime() - start) / 1_000_000 < READ_TIMEOUT_MS / 2);
+            }
+        }
+    }
+
+    private static int readOrEof(InputStream in) {
+        try {
+            return in.read();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package miron.gaskov.server;
+
+import miron.gaskov.server.metrics.Metrics;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InboxTest {
+
+    @Test
+    @Timeout(30)
+    void everyEventRunsOnceThroughRingAndOverflow() throws Exception {
+        int producers = 4;
+        int perProducer = 20_000;
+        var metrics = new Metrics();
+        try (var selector = Selector.open()) {
+            var inbox = new Inbox(selector, metrics, 64);
+            var ran = new AtomicInteger();
+            var threads = new ArrayList<Thread>();
+            for (int p = 0; p < producers; p++) {
+                threads.add(Thread.ofPlatform().start(() -> {
+                    for (int i = 0; i < perProducer; i++) inbox.post(ran::incrementAndGet);
+                }));
+            }
+            int total = producers * perProducer;
+            while (ran.get() < total) {
+                if (inbox.isEmpty()) selector.select(10);
+                selector.selectedKeys().clear();
+                inbox.drain();
+            }
+            for (Thread t : threads) t.join();
+            inbox.drain();
+
+            assertEquals(total, ran.get());
+            assertTrue(inbox.isEmpty());
+            assertEquals(total, counter(metrics, "reactor_events_total"));
+            assertTrue(counter(metrics, "reactor_wakeups_total") <= total);
+        }
+    }
+
+    @Test
+    void onlyTheFirstEventFromAnotherThreadWakesTheSelector() throws Exception {
+        var metrics = new Metrics();
+        try (var selector = Selector.open()) {
+            var inbox = new Inbox(selector, metrics, 16);
+            var ran = new AtomicInteger();
+            inbox.drain();
+
+            inbox.post(ran::incrementAndGet);
+            assertEquals(0, counter(metrics, "reactor_wakeups_total"));
+
+            var other = Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 40; i++) inbox.post(ran::incrementAndGet);
+            });
+            other.join();
+            assertEquals(0, counter(metrics, "reactor_wakeups_total"));
+            assertEquals(41, inbox.drain());
+
+            other = Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 40; i++) inbox.post(ran::incrementAndGet);
+            });
+            other.join();
+            assertEquals(1, counter(metrics, "reactor_wakeups_total"));
+            assertEquals(40, inbox.drain());
+            assertEquals(81, ran.get());
+            assertEquals(81 - 32, counter(metrics, "reactor_inbox_overflows_total"));
+        }
+    }
+
+    private static long counter(Metrics metrics, String name) {
+        for (String line : metrics.prometheus().split("\n")) {
+            if (line.startsWith("keyserver_" + name + " "))
+                return (long) Double.parseDouble(line.substring(line.indexOf(' ') + 1));
+        }
+        throw new AssertionError("no counter " + name);
+    }
+}
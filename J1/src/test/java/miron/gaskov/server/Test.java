@@ -7,7 +7,9 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
@@ -19,12 +21,14 @@ public class Test {
     @MethodSource("scenarios")
     @Timeout(10)
     void runScenario(String serverConfig, List<String> clientConfigs) throws Exception {
-        int port = findFreePort();
+        int port = TestServers.findFreePort();
 
         Map<String, String> vars = new HashMap<>();
         vars.put("${PORT}", String.valueOf(port));
         vars.put("${SIGNER}", "signer.key");
         vars.put("${ISSUER}", "CN=Test Issuer");
+        // A fresh store per invocation, so each engine generates and persists instead of serving a warm store.
+        vars.put("${STORE}", Files.createTempDirectory("test-store").toString());
 
         String[] serverArgs = splitArgs(applyVars(serverConfig, vars));
         Thread serverThread = new Thread(() -> {
@@ -74,6 +78,11 @@ public class Test {
     }
 
     static Stream<org.junit.jupiter.params.provider.Arguments> scenarios() {
+        return baseScenarios().flatMap(a -> Stream.of(a, org.junit.jupiter.params.provider.Arguments.of(
+                a.get()[0] + " --engine vthreads", a.get()[1])));
+    }
+
+    private static Stream<org.junit.jupiter.params.provider.Arguments> baseScenarios() {
         return Stream.of(
                 org.junit.jupiter.params.provider.Arguments.of(
                         "--signing-key ${SIGNER} --issuer \"${ISSUER}\" --port ${PORT} --threads 4 --key-bits 2048 --valid-days 30",
@@ -95,6 +104,23 @@ public class Test {
                 org.junit.jupiter.params.provider.Arguments.of(
                         "--signing-key ${SIGNER} --issuer 'CN=Long Issuer' --port ${PORT} --threads 4 --key-bits 2048 --valid-days 30",
                         buildSlowAndNormal(Duration.ofSeconds(1))
+                ),
+
+                org.junit.jupiter.params.provider.Arguments.of(
+                        "--signing-key ${SIGNER} --issuer '${ISSUER}' --port ${PORT} --threads 4 --key-bits 2048 --valid-days 30" +
+                                " --pool-size 8 --pool-low 2 --pool-threads 2 --reactors 4 --balance least-load",
+                        buildMixedClients()
+                ),
+
+                org.junit.jupiter.params.provider.Arguments.of(
+                        "--signing-key ${SIGNER} --issuer '${ISSUER}' --port ${PORT} --threads 4 --key-bits 2048 --valid-days 30" +
+                                " --store-dir ${STORE} --cache-bytes 65536 --reactors 2",
+                        buildSlowAndNormal(Duration.ofSeconds(1))
+                ),
+
+                org.junit.jupiter.params.provider.Arguments.of(
+                        "--signing-key ${SIGNER} --issuer '${ISSUER}' --port ${PORT} --threads 4 --key-bits 2048 --valid-days 30",
+                        buildPipelined()
                 )
         );
     }
@@ -123,10 +149,31 @@ public class Test {
         return list;
     }
 
-    private static int findFreePort() throws IOException {
-        try (ServerSocket ss = new ServerSocket(0)) {
-            ss.setReuseAddress(true);
-            return ss.getLocalPort();
+    private static List<String> buildPipelined() {
+        return List.of(
+                "--host 127.0.0.1 --port ${PORT} --protocol 2 --name p1,p2,p3,p1 --out out/p",
+                "--host 127.0.0.1 --port ${PORT} --protocol 2 --name p2,p4 --out out/q --delay 1",
+                "--host 127.0.0.1 --port ${PORT} --protocol 2 --name p5,p6 --out out/r --abort true",
+                "--host 127.0.0.1 --port ${PORT} --name p1 --out out/p1-legacy",
+                "--host 127.0.0.1 --port ${PORT} --key-type ec-p256 --name p1,e1 --out out/ec",
+                "--host 127.0.0.1 --port ${PORT} --key-type ed25519 --name p1,d1 --out out/ed",
+                "--host 127.0.0.1 --port ${PORT} --format der --name p1,p3 --out out/der",
+                "--host 127.0.0.1 --port ${PORT} --tenant acme --name p2,t1 --out out/tenant",
+                "--host 127.0.0.1 --port ${PORT} --names-file " + writeNamesFile("batch", 12) + " --out out/batch",
+                "--host 127.0.0.1 --port ${PORT} --names-file " + writeNamesFile("batch-abort", 4) + " --out out/ab --abort true"
+        );
+    }
+
+    private static String writeNamesFile(String prefix, int count) {
+        try {
+            Path file = Files.createTempFile(prefix, ".txt");
+            file.toFile().deleteOnExit();
+            var lines = new ArrayList<String>(count);
+            for (int i = 1; i <= count; i++) lines.add(prefix + i);
+            Files.write(file, lines);
+            return file.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
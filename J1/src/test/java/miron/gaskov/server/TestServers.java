@@ -0,0 +1,55 @@
+package miron.gaskov.server;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+public final class TestServers {
+    private TestServers() {
+    }
+
+    public static int findFreePort() throws IOException {
+        try (ServerSocket ss = new ServerSocket(0)) {
+            ss.setReuseAddress(true);
+            return ss.getLocalPort();
+        }
+    }
+
+    public static void awaitListening(int port) throws InterruptedException {
+        for (int i = 0; i < 200; i++) {
+            try (Socket ignored = new Socket("127.0.0.1", port)) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    // Runs ServerMain on a daemon thread; it lives as long as the test JVM.
+    public static void startMain(String threadName, String... args) {
+        Thread t = new Thread(() -> {
+            try {
+                ServerMain.main(args);
+            } catch (Throwable e) {
+                System.err.println("[SERVER] FAILED: " + e);
+            }
+        }, threadName);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // Runs an engine on a daemon thread; close it to stop it.
+    public static <E extends ServerEngine> E run(E engine) {
+        Thread t = new Thread(() -> {
+            try {
+                engine.run();
+            } catch (IOException e) {
+                System.err.println("[SERVER] FAILED: " + e);
+            }
+        }, "test-engine");
+        t.setDaemon(true);
+        t.start();
+        return engine;
+    }
+}
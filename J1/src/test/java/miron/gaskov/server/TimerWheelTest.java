@@ -0,0 +1,52 @@
+package miron.gaskov.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimerWheelTest {
+    private static final long TICK = 10;
+
+    @Test
+    void firesOnceDueAndNotBefore() {
+        var wheel = new TimerWheel<String>(TICK, 8, 0);
+        var a = new TimerWheel.Timer<>("a");
+        var b = new TimerWheel.Timer<>("b");
+        wheel.schedule(a, 25);
+        wheel.schedule(b, 200); // more than one revolution out
+        List<String> fired = new ArrayList<>();
+
+        wheel.advance(20, fired::add);
+        assertEquals(List.of(), fired);
+        wheel.advance(30, fired::add);
+        assertEquals(List.of("a"), fired);
+        assertFalse(a.scheduled());
+
+        wheel.advance(190, fired::add);
+        assertEquals(List.of("a"), fired);
+        wheel.advance(200, fired::add);
+        assertEquals(List.of("a", "b"), fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void cancelAndRescheduleMoveTheDeadline() {
+        var wheel = new TimerWheel<String>(TICK, 8, 0);
+        var a = new TimerWheel.Timer<>("a");
+        var b = new TimerWheel.Timer<>("b");
+        wheel.schedule(a, 10);
+        wheel.schedule(b, 10);
+        wheel.cancel(b);
+        wheel.schedule(a, 50);
+        assertEquals(1, wheel.size());
+        List<String> fired = new ArrayList<>();
+
+        wheel.advance(40, fired::add);
+        assertEquals(List.of(), fired);
+        wheel.advance(10_000, fired::add); // a long stall expires everything that was due
+        assertEquals(List.of("a"), fired);
+    }
+}
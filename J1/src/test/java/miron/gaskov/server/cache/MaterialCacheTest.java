@@ -0,0 +1,68 @@
+package miron.gaskov.server.cache;
+
+import miron.gaskov.common.Pem;
+import miron.gaskov.server.generation.FramedMaterial;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MaterialCacheTest {
+
+    // DER frames plus the PEM frames the entry may memoize.
+    private static final int ENTRY_BYTES = 4 + 100 + 4 + 100 +
+            4 + Pem.encodedLength("PRIVATE KEY", 100) + 4 + Pem.encodedLength("CERTIFICATE", 100);
+
+    @Test
+    void staysWithinByteBudget() {
+        var cache = new MaterialCache(ENTRY_BYTES * 3L);
+        for (int i = 0; i < 10; i++) cache.put("n" + i, material());
+
+        var stats = cache.stats();
+        assertEquals(3, stats.entries());
+        assertEquals(ENTRY_BYTES * 3L, stats.residentBytes());
+        assertEquals(7, stats.evictions());
+        assertNotNull(cache.get("n9"));
+        assertNull(cache.get("n0"));
+    }
+
+    @Test
+    void frequentlyUsedEntriesSurviveScans() {
+        var cache = new MaterialCache(ENTRY_BYTES * 4L);
+        cache.put("hot", material());
+        assertNotNull(cache.get("hot"));
+
+        for (int i = 0; i < 20; i++) cache.put("scan" + i, material());
+
+        assertNotNull(cache.get("hot"));
+        var stats = cache.stats();
+        assertEquals(2, stats.hits());
+        assertEquals(1.0, stats.hitRatio());
+    }
+
+    @Test
+    void pinnedEntriesAreNeverEvicted() {
+        var cache = new MaterialCache(ENTRY_BYTES * 2L);
+        var generated = material();
+        cache.pin("generated", generated);
+        for (int i = 0; i < 5; i++) cache.put("n" + i, material());
+        assertSame(generated, cache.get("generated"));
+        assertEquals(1, cache.stats().pinned());
+
+        // Over budget with pins alone: they stay until the store has them.
+        cache.pin("more", material());
+        cache.pin("most", material());
+        assertEquals(3, cache.stats().entries());
+        assertNotNull(cache.peek("most"));
+
+        cache.unpin("generated", generated);
+        // A stale unpin for material the name no longer maps to is ignored.
+        cache.unpin("more", material());
+        assertEquals(2, cache.stats().pinned());
+        assertNull(cache.peek("generated"));
+        assertNotNull(cache.peek("more"));
+    }
+
+    private static FramedMaterial material() {
+        return FramedMaterial.of(new byte[100], new byte[100]);
+    }
+}
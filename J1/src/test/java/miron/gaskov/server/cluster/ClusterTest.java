@@ -0,0 +1,66 @@
+package miron.gaskov.server.cluster;
+
+import miron.gaskov.server.TestServers;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClusterTest {
+
+    @Test
+    @Timeout(60)
+    void everyNodeServesTheOwnersMaterial() throws Exception {
+        int a = TestServers.findFreePort();
+        int b = TestServers.findFreePort();
+        String peers = "127.0.0.1:" + a + ",127.0.0.1:" + b;
+        start("nio", a, peers);
+        start("vthreads", b, peers);
+        TestServers.awaitListening(a);
+        TestServers.awaitListening(b);
+
+        var ring = new HashRing();
+        ring.add("127.0.0.1:" + a);
+        ring.add("127.0.0.1:" + b);
+        int remoteForA = 0;
+        for (int i = 0; i < 8; i++) {
+            String name = "cluster" + i;
+            if (!ring.owner(name).equals("127.0.0.1:" + a)) remoteForA++;
+            byte[] viaA = request(a, name);
+            byte[] viaB = request(b, name);
+            assertArrayEquals(viaA, viaB, "both nodes must hand out the same material for " + name);
+        }
+        assertTrue(remoteForA > 0 && remoteForA < 8, "names should be split across both nodes");
+    }
+
+    private static void start(String engine, int port, String peers) {
+        String[] args = {"--engine", engine, "--port", String.valueOf(port), "--threads", "2", "--key-type", "ec-p256",
+                "--signing-key", "signer.key", "--valid-days", "30", "--peers", peers};
+        TestServers.startMain("cluster-" + port, args);
+    }
+
+    // Legacy request: the reply is [len][key pem][len][cert pem].
+    private static byte[] request(int port, String name) throws IOException {
+        try (Socket s = new Socket("127.0.0.1", port)) {
+            OutputStream out = s.getOutputStream();
+            out.write(name.getBytes(StandardCharsets.US_ASCII));
+            out.write(0);
+            out.flush();
+            var in = new DataInputStream(s.getInputStream());
+            int keyLen = in.readInt();
+            if (keyLen <= 0) throw new IOException("error reply for " + name);
+            byte[] key = in.readNBytes(keyLen);
+            byte[] crt = in.readNBytes(in.readInt());
+            byte[] both = new byte[key.length + crt.length];
+            System.arraycopy(key, 0, both, 0, key.length);
+            System.arraycopy(crt, 0, both, key.length, crt.length);
+            return both;
+        }
+    }
+}
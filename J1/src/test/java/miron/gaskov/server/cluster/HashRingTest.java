@@ -0,0 +1,51 @@
+package miron.gaskov.server.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashRingTest {
+    private static final int NAMES = 20_000;
+
+    @Test
+    void namesSpreadEvenlyAcrossNodes() {
+        var ring = ring("a:1", "b:1", "c:1", "d:1");
+        var counts = new HashMap<String, Integer>();
+        for (int i = 0; i < NAMES; i++) counts.merge(ring.owner("name" + i), 1, Integer::sum);
+        assertEquals(4, counts.size());
+        for (int c : counts.values()) assertTrue(Math.abs(c - NAMES / 4) < NAMES / 4 / 5, counts.toString());
+    }
+
+    @Test
+    void membershipChangesMoveFewNames() {
+        var before = ring("a:1", "b:1", "c:1", "d:1");
+        Map<String, String> owners = new HashMap<>();
+        for (int i = 0; i < NAMES; i++) owners.put("name" + i, before.owner("name" + i));
+
+        var grown = ring("a:1", "b:1", "c:1", "d:1", "e:1");
+        int moved = 0;
+        for (var e : owners.entrySet()) {
+            String now = grown.owner(e.getKey());
+            if (!now.equals(e.getValue())) {
+                assertEquals("e:1", now, "a name may only move to the new node");
+                moved++;
+            }
+        }
+        assertTrue(moved > NAMES / 5 * 0.7 && moved < NAMES / 5 * 1.3, "moved " + moved);
+
+        var shrunk = ring("a:1", "b:1", "c:1", "d:1");
+        shrunk.remove("d:1");
+        for (var e : owners.entrySet()) {
+            if (!e.getValue().equals("d:1")) assertEquals(e.getValue(), shrunk.owner(e.getKey()));
+        }
+    }
+
+    private static HashRing ring(String... nodes) {
+        var ring = new HashRing();
+        for (String n : nodes) ring.add(n);
+        return ring;
+    }
+}
@@ -0,0 +1,81 @@
+package miron.gaskov.server.generation;
+
+import miron.gaskov.common.KeyType;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CertificateServiceTest {
+
+    @BeforeAll
+    static void provider() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Test
+    void autoAlgorithmMatchesSubjectStrength() throws Exception {
+        KeyPair issuer = GenerationService.generateKeyPair(KeyType.RSA_2048);
+        var certs = new CertificateService(new X500Name("CN=Test Issuer"), issuer.getPrivate(), "auto", 1);
+
+        for (KeyType type : List.of(KeyType.EC_P256, KeyType.EC_P384, KeyType.ED25519)) {
+            KeyPair subject = GenerationService.generateKeyPair(type);
+            byte[] der = certs.issueDer(type.label(), subject.getPublic(), type);
+            X509Certificate cert = new JcaX509CertificateConverter().setProvider("BC")
+                    .getCertificate(new X509CertificateHolder(der));
+
+            cert.verify(issuer.getPublic());
+            assertEquals(subject.getPublic(), cert.getPublicKey());
+            assertEquals("SHA" + type.digestBits() + "WITHRSA", cert.getSigAlgName().toUpperCase());
+        }
+    }
+
+    @Test
+    void certificatesIssuedOnOneThreadVerifyAndHaveDistinctSerials() throws Exception {
+        KeyPair issuer = GenerationService.generateKeyPair(KeyType.EC_P256);
+        var certs = new CertificateService(new X500Name("CN=Test Issuer"), issuer.getPrivate(), null, 1);
+        var subjects = new ArrayList<CertificateService.Subject>();
+        var ders = new ArrayList<byte[]>();
+        for (int i = 0; i < 8; i++) {
+            KeyPair subject = GenerationService.generateKeyPair(KeyType.EC_P256);
+            subjects.add(new CertificateService.Subject("batch" + i, subject.getPublic(), KeyType.EC_P256));
+            ders.add(certs.issueDer("single" + i, subject.getPublic(), KeyType.EC_P256));
+        }
+        ders.addAll(certs.issueAll(subjects));
+
+        var serials = new HashSet<BigInteger>();
+        for (byte[] der : ders) {
+            X509Certificate cert = new JcaX509CertificateConverter().setProvider("BC")
+                    .getCertificate(new X509CertificateHolder(der));
+            cert.verify(issuer.getPublic());
+            assertTrue(serials.add(cert.getSerialNumber()), "repeated serial " + cert.getSerialNumber());
+        }
+        assertEquals(16, serials.size());
+    }
+
+    @Test
+    void ellipticIssuerSignsWithEcdsa() throws Exception {
+        KeyPair issuer = GenerationService.generateKeyPair(KeyType.EC_P256);
+        var certs = new CertificateService(new X500Name("CN=Test Issuer"), issuer.getPrivate(), null, 1);
+        assertEquals("SHA384withECDSA", certs.signatureAlgorithm(KeyType.EC_P384));
+
+        KeyPair edIssuer = GenerationService.generateKeyPair(KeyType.ED25519);
+        var edCerts = new CertificateService(new X500Name("CN=Test Issuer"), edIssuer.getPrivate(), null, 1);
+        assertEquals("Ed25519", edCerts.signatureAlgorithm(KeyType.RSA_4096));
+
+        var explicit = new CertificateService(new X500Name("CN=Test Issuer"), issuer.getPrivate(), "SHA256withECDSA", 1);
+        assertEquals("SHA256withECDSA", explicit.signatureAlgorithm(KeyType.EC_P384));
+    }
+}
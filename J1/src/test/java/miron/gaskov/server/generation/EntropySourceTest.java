@@ -0,0 +1,60 @@
+package miron.gaskov.server.generation;
+
+import miron.gaskov.common.KeyType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Timeout(30)
+class EntropySourceTest {
+
+    @Test
+    void eachThreadDrawsFromItsOwnGenerator() throws Exception {
+        try (var entropy = new EntropySource(1 << 20, 60_000)) {
+            SecureRandom mine = entropy.random();
+            assertSame(mine, entropy.random());
+            var theirs = CompletableFuture.supplyAsync(entropy::random, r -> Thread.ofPlatform().start(r)).get();
+            assertNotSame(mine, theirs);
+
+            byte[] a = new byte[32];
+            byte[] b = new byte[32];
+            mine.nextBytes(a);
+            mine.nextBytes(b);
+            assertFalse(Arrays.equals(a, b));
+            assertNotNull(GenerationService.generateKeyPair(KeyType.EC_P256, mine));
+            assertTrue(entropy.stats().bytes() >= 64);
+            assertEquals(0, entropy.stats().reseeds());
+        }
+    }
+
+    @Test
+    void byteBudgetReseedsInTheBackground() throws Exception {
+        try (var entropy = new EntropySource(1024, 60_000)) {
+            SecureRandom random = entropy.random();
+            random.nextBytes(new byte[2048]);
+            awaitReseeds(entropy, 1);
+            // The owner swaps the replacement in on its next draw and keeps working throughout.
+            random.nextBytes(new byte[16]);
+            assertEquals(1, entropy.stats().generators());
+        }
+    }
+
+    @Test
+    void generatorsAreReseededOnSchedule() throws Exception {
+        try (var entropy = new EntropySource(1L << 40, 50)) {
+            entropy.random().nextBytes(new byte[16]);
+            awaitReseeds(entropy, 2);
+        }
+    }
+
+    private static void awaitReseeds(EntropySource entropy, long reseeds) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (entropy.stats().reseeds() < reseeds && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertTrue(entropy.stats().reseeds() >= reseeds, "reseeds: " + entropy.stats().reseeds());
+    }
+}
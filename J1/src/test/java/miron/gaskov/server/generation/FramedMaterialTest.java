@@ -0,0 +1,48 @@
+package miron.gaskov.server.generation;
+
+import miron.gaskov.common.KeyMaterial;
+import miron.gaskov.common.Pem;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FramedMaterialTest {
+
+    @Test
+    void pemFramesMatchEncoderAndPredictedSize() {
+        var random = new Random(7);
+        for (int len = 0; len <= 400; len += 13) {
+            byte[] key = new byte[len];
+            byte[] crt = new byte[len * 3 + 1];
+            random.nextBytes(key);
+            random.nextBytes(crt);
+            var material = FramedMaterial.of(key, crt);
+
+            int predicted = material.size(false);
+            KeyMaterial pem = material.toKeyMaterial();
+            assertArrayEquals(Pem.encode("PRIVATE KEY", key), pem.privateKeyPem());
+            assertArrayEquals(Pem.encode("CERTIFICATE", crt), pem.certificatePem());
+            assertEquals(predicted, material.frames(false).remaining());
+            assertEquals(8 + key.length + crt.length, material.size(true));
+            assertEquals(material.size(true) + material.size(false), material.footprint());
+
+            var back = FramedMaterial.fromPem(pem);
+            assertEquals(material.frames(true), back.frames(true));
+        }
+    }
+
+    @Test
+    void wrapRejectsMalformedFrames() {
+        var good = FramedMaterial.of(new byte[]{1, 2}, new byte[]{3});
+        assertEquals(good.frames(true), FramedMaterial.wrap(good.frames(true)).frames(true));
+
+        assertThrows(IllegalArgumentException.class, () -> FramedMaterial.wrap(ByteBuffer.allocate(4)));
+        assertThrows(IllegalArgumentException.class,
+                () -> FramedMaterial.wrap(ByteBuffer.allocate(12).putInt(100).flip()));
+        assertThrows(IllegalArgumentException.class,
+                () -> FramedMaterial.wrap(ByteBuffer.allocate(12).putInt(0).putInt(5).flip()));
+    }
+}
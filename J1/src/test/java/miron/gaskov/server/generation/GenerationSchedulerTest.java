@@ -0,0 +1,284 @@
+package miron.gaskov.server.generation;
+
+import miron.gaskov.common.OverloadedException;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GenerationSchedulerTest {
+
+    @Test
+    void rejectsWhenQueueIsFull() throws Exception {
+        var scheduler = new GenerationScheduler(1, 1, 0);
+        var release = new CountDownLatch(1);
+        var started = new CountDownLatch(1);
+        try {
+            scheduler.submit(() -> {
+                started.countDown();
+                await(release);
+            }, t -> fail(t));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            var queued = new CompletableFuture<Void>();
+            scheduler.submit(() -> queued.complete(null), queued::completeExceptionally);
+
+            var rejected = new CompletableFuture<Throwable>();
+            scheduler.submit(() -> fail("should have been rejected"), rejected::complete);
+            var ex = assertInstanceOf(OverloadedException.class, rejected.get(5, TimeUnit.SECONDS));
+            assertTrue(ex.retryAfterMillis() > 0);
+            assertEquals(1, scheduler.stats().rejected());
+
+            release.countDown();
+            queued.get(5, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            scheduler.shutdown(1000);
+        }
+    }
+
+    @Test
+    void expiresTasksThatWaitedTooLong() throws Exception {
+        var scheduler = new GenerationScheduler(1, 8, 50);
+        var release = new CountDownLatch(1);
+        try {
+            scheduler.submit(() -> await(release), t -> fail(t));
+            var stale = new CompletableFuture<Throwable>();
+            scheduler.submit(() -> fail("should have expired"), stale::complete);
+
+            Thread.sleep(150);
+            release.countDown();
+            assertInstanceOf(OverloadedException.class, stale.get(5, TimeUnit.SECONDS));
+            assertEquals(1, scheduler.stats().expired());
+        } finally {
+            release.countDown();
+            scheduler.shutdown(1000);
+        }
+    }
+
+    @Test
+    void cancelledAndDeferredTasksYieldToRequests() throws Exception {
+        var scheduler = new GenerationScheduler(1, 8, 0);
+        var release = new CountDownLatch(1);
+        var started = new CountDownLatch(1);
+        var order = new StringBuffer();
+        var done = new CountDownLatch(2);
+        try {
+            scheduler.submit(() -> {
+                started.countDown();
+                await(release);
+            }, t -> fail(t));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            var dropped = scheduler.submit(() -> order.append("dropped "), t -> fail(t));
+            var deferred = scheduler.submit(() -> {
+                order.append("deferred ");
+                done.countDown();
+            }, t -> fail(t));
+            scheduler.submit(() -> {
+                order.append("request ");
+                done.countDown();
+            }, t -> fail(t));
+
+            assertTrue(dropped.cancel());
+            assertTrue(deferred.defer());
+            assertEquals(1, scheduler.stats().background());
+
+            release.countDown();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals("request deferred ", order.toString());
+            assertEquals(1, scheduler.stats().cancelled());
+            assertFalse(deferred.cancel());
+        } finally {
+            release.countDown();
+            scheduler.shutdown(1000);
+        }
+    }
+    @Test
+    void smallTenantIsServedBeforeABacklogAndWeightsSplitTheRest() throws Exception {
+        var policy = new GenerationScheduler.TenantPolicy(1, Map.of("heavy", 2.0));
+        var scheduler = new GenerationScheduler(1, 64, 0, policy);
+        var release = new CountDownLatch(1);
+        var started = new CountDownLatch(1);
+        var order = new StringBuffer();
+        var done = new CountDownLatch(13);
+        try {
+            scheduler.submit("heavy", () -> {
+                started.countDown();
+                await(release);
+            }, t -> fail(t));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 8; i++) {
+                scheduler.submit("heavy", () -> {
+                    order.append('h');
+                    done.countDown();
+                }, t -> fail(t));
+            }
+            for (int i = 0; i < 5; i++) {
+                scheduler.submit("light", () -> {
+                    order.append('l');
+                    done.countDown();
+                }, t -> fail(t));
+            }
+            assertEquals(2, scheduler.stats().tenants());
+
+            release.countDown();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals('l', order.charAt(0));
+            // Twice the weight, twice the share while both have work queued.
+            assertEquals("lhhlhhlhhlhhl", order.toString().substring(0, 13));
+            assertEquals(0, scheduler.stats().tenants());
+        } finally {
+            release.countDown();
+            scheduler.shutdown(1000);
+        }
+    }
+
+    @Test
+    void oneTenantCannotHoldEveryWorker() throws Exception {
+        var scheduler = new GenerationScheduler(3, 64, 0, new GenerationScheduler.TenantPolicy(2, Map.of()));
+        var release = new CountDownLatch(1);
+        var running = new AtomicInteger();
+        var peak = new AtomicInteger();
+        var other = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < 6; i++) {
+                scheduler.submit("busy", () -> {
+                    peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    await(release);
+                    running.decrementAndGet();
+                }, t -> fail(t));
+            }
+            scheduler.submit("other", other::countDown, t -> fail(t));
+            assertTrue(other.await(5, TimeUnit.SECONDS));
+
+            var busy = scheduler.tenantStats().stream().filter(t -> t.tenant().equals("busy")).findFirst().orElseThrow();
+            assertEquals(2, busy.running());
+            assertEquals(4, busy.queued());
+            assertEquals(2, peak.get());
+        } finally {
+            release.countDown();
+            scheduler.shutdown(1000);
+        }
+    }
+
+    @Test
+    void cappedOutWorkersAreKeptForNewcomersNotBackgroundWork() throws Exception {
+        var scheduler = new GenerationScheduler(2, 64, 0, new GenerationScheduler.TenantPolicy(1, Map.of()));
+        var release = new CountDownLatch(1);
+        var started = new CountDownLatch(1);
+        var background = new CountDownLatch(1);
+        var newcomer = new CountDownLatch(1);
+        try {
+            scheduler.submit("busy", () -> {
+                started.countDown();
+                await(release);
+            }, t -> fail(t));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            scheduler.submit("busy", () -> {
+            }, t -> fail(t));
+            scheduler.submitBackground(() -> {
+                background.countDown();
+                await(release);
+            }, t -> fail(t));
+
+            // The second worker is idle only because "busy" is at its cap; it must not take the background task.
+            assertFalse(background.await(200, TimeUnit.MILLISECONDS));
+            scheduler.submit("new", newcomer::countDown, t -> fail(t));
+            assertTrue(newcomer.await(5, TimeUnit.SECONDS));
+            assertEquals(1, scheduler.stats().background());
+
+            release.countDown();
+            assertTrue(background.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            scheduler.shutdown(1000);
+        }
+    }
+
+    @Test
+    void fullQueueMakesRoomFromTheLongestTenantQueue() throws Exception {
+        var scheduler = new GenerationScheduler(1, 3, 0);
+        var release = new CountDownLatch(1);
+        var started = new CountDownLatch(1);
+        try {
+            scheduler.submit("a", () -> {
+                started.countDown();
+                await(release);
+            }, t -> fail(t));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            scheduler.submit("a", () -> {
+            }, t -> fail(t));
+            scheduler.submit("a", () -> {
+            }, t -> fail(t));
+            var evicted = new CompletableFuture<Throwable>();
+            scheduler.submit("a", () -> fail("should have been evicted"), evicted::complete);
+
+            var admitted = new CompletableFuture<Void>();
+            scheduler.submit("b", () -> admitted.complete(null), admitted::completeExceptionally);
+            assertInstanceOf(OverloadedException.class, evicted.get(5, TimeUnit.SECONDS));
+
+            var rejected = new CompletableFuture<Throwable>();
+            scheduler.submit("a", () -> fail("should have been rejected"), rejected::complete);
+            assertInstanceOf(OverloadedException.class, rejected.get(5, TimeUnit.SECONDS));
+            assertEquals(1, scheduler.stats().evicted());
+            assertEquals(1, scheduler.stats().rejected());
+
+            release.countDown();
+            admitted.get(5, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            scheduler.shutdown(1000);
+        }
+    }
+
+    @Test
+    void promotionIsAdmittedLikeASubmit() throws Exception {
+        var scheduler = new GenerationScheduler(1, 2, 0);
+        var release = new CountDownLatch(1);
+        var started = new CountDownLatch(1);
+        var ran = new CountDownLatch(2);
+        try {
+            scheduler.submit("a", () -> {
+                started.countDown();
+                await(release);
+            }, t -> fail(t));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            var promoted = scheduler.submitBackground(ran::countDown, t -> fail(t));
+            var refused = scheduler.submitBackground(ran::countDown, t -> fail(t));
+            scheduler.submit("a", () -> {
+            }, t -> fail(t));
+            var evicted = new CompletableFuture<Throwable>();
+            scheduler.submit("a", () -> fail("should have been evicted"), evicted::complete);
+
+            // The lane is full: "b" gets in at the expense of the longest queue...
+            assertTrue(promoted.promote("b"));
+            assertInstanceOf(OverloadedException.class, evicted.get(5, TimeUnit.SECONDS));
+            // ...but with no queue longer than the newcomer's would become, the task stays deferred.
+            assertThrows(OverloadedException.class, () -> refused.promote("c"));
+            assertEquals(2, scheduler.stats().queued());
+            assertEquals(1, scheduler.stats().background());
+            assertEquals(1, scheduler.stats().evicted());
+            assertEquals(1, scheduler.stats().rejected());
+
+            release.countDown();
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            scheduler.shutdown(1000);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package miron.gaskov.server.generation;
+
+import miron.gaskov.common.KeyType;
+import miron.gaskov.server.cache.MaterialCache;
+import miron.gaskov.server.metrics.Metrics;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.security.Security;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Timeout(30)
+class GenerationServiceTest {
+    private final CountDownLatch release = new CountDownLatch(1);
+    private GenerationScheduler scheduler;
+    private GenerationService service;
+
+    @BeforeAll
+    static void provider() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @AfterEach
+    void stop() {
+        release.countDown();
+        if (service != null) service.stop();
+    }
+
+    @Test
+    void cancellingEveryCopyDropsAQueuedGeneration() throws Exception {
+        start(GenerationService.AbandonPolicy.DROP);
+        var a = service.get("x");
+        var b = service.get("x");
+        assertEquals(1, scheduler.stats().queued());
+
+        a.cancel(false);
+        assertEquals(0, service.abandoned());
+        b.cancel(false);
+        assertEquals(1, service.abandoned());
+        assertEquals(0, scheduler.stats().queued());
+        assertEquals(1, scheduler.stats().cancelled());
+
+        release.countDown();
+        assertNotNull(service.get("x").get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void cancellingEveryCopyDefersAQueuedGeneration() throws Exception {
+        start(GenerationService.AbandonPolicy.DEFER);
+        var a = service.get("x");
+        var b = service.get("x");
+        a.cancel(false);
+        b.cancel(false);
+        assertEquals(1, service.abandoned());
+        assertEquals(0, scheduler.stats().queued());
+        assertEquals(1, scheduler.stats().background());
+
+        release.countDown();
+        awaitBackgroundDone();
+        assertNotNull(service.get("x").get(10, TimeUnit.SECONDS));
+        assertEquals(1, service.cacheStats().hits());
+    }
+
+    @Test
+    void aRemainingWaiterKeepsTheGenerationAlive() throws Exception {
+        start(GenerationService.AbandonPolicy.DROP);
+        var a = service.get("x");
+        var b = service.get("x");
+        a.cancel(false);
+        assertEquals(0, service.abandoned());
+        assertEquals(1, scheduler.stats().queued());
+
+        release.countDown();
+        assertNotNull(b.get(10, TimeUnit.SECONDS));
+        assertEquals(0, service.abandoned());
+        assertEquals(0, scheduler.stats().cancelled());
+    }
+
+    @Test
+    void pemIsEncodedBeforeCompletionOnlyWhenAWaiterWantsIt() throws Exception {
+        start(GenerationService.AbandonPolicy.DROP);
+        var der = service.get("x", null, false, null, true);
+        var pem = service.get("y", null, false, null, false);
+        release.countDown();
+
+        assertFalse(der.get(10, TimeUnit.SECONDS).hasPem());
+        assertTrue(pem.get(10, TimeUnit.SECONDS).hasPem());
+        assertTrue(service.get("x", null, false, null, false).get(10, TimeUnit.SECONDS).hasPem());
+    }
+
+    // One worker, held by a request until the test releases it, so generations stay queued.
+    private void start(GenerationService.AbandonPolicy policy) throws Exception {
+        var signer = GenerationService.generateKeyPair(KeyType.EC_P256);
+        var certs = new CertificateService(new X500Name("CN=Test Issuer"), signer.getPrivate(), null, 1);
+        scheduler = new GenerationScheduler(1, 64, 0);
+        service = new GenerationService(scheduler, certs, KeyType.EC_P256, new MaterialCache(1 << 20), null, null,
+                policy, new Metrics(), null, null, EntropySource.defaultSource());
+        var started = new CountDownLatch(1);
+        scheduler.submit(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, t -> fail(t));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    private void awaitBackgroundDone() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (service.cacheStats().entries() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertEquals(1, service.cacheStats().entries());
+    }
+}
@@ -0,0 +1,87 @@
+package miron.gaskov.server.generation;
+
+import miron.gaskov.common.KeyType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.security.KeyPair;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Timeout(30)
+class KeyPairPoolTest {
+
+    @Test
+    void fillsToTheHighWatermarkAndRefillsBelowTheLow() throws Exception {
+        KeyPair kp = GenerationService.generateKeyPair(KeyType.EC_P256);
+        var generated = new AtomicInteger();
+        var scheduler = new GenerationScheduler(2, 64, 0);
+        var pool = new KeyPairPool(8, 2, 6, 2, scheduler, () -> {
+            generated.incrementAndGet();
+            return kp;
+        });
+        try {
+            awaitDepth(pool, 6);
+            assertEquals(6, generated.get());
+
+            for (int i = 0; i < 4; i++) assertSame(kp, pool.poll());
+            Thread.sleep(100);
+            assertEquals(2, pool.stats().depth(), "no refill at the low watermark");
+            assertEquals(6, generated.get());
+
+            assertSame(kp, pool.poll());
+            awaitDepth(pool, 6);
+            assertEquals(11, generated.get());
+            assertEquals(5, pool.stats().hits());
+            assertEquals(0, pool.stats().misses());
+        } finally {
+            pool.stop();
+            scheduler.shutdown(1000);
+        }
+    }
+
+    @Test
+    void refillsWaitForTheRequestLane() throws Exception {
+        KeyPair kp = GenerationService.generateKeyPair(KeyType.EC_P256);
+        var scheduler = new GenerationScheduler(1, 64, 0);
+        var release = new CountDownLatch(1);
+        var started = new CountDownLatch(1);
+        scheduler.submit(() -> {
+            started.countDown();
+            await(release);
+        }, t -> fail(t));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        var pool = new KeyPairPool(4, 1, 4, 1, scheduler, () -> kp);
+        try {
+            Thread.sleep(100);
+            assertNull(pool.poll());
+            assertEquals(new KeyPairPool.Stats(0, 0, 1), pool.stats());
+
+            release.countDown();
+            awaitDepth(pool, 4);
+            assertSame(kp, pool.poll());
+            assertEquals(new KeyPairPool.Stats(3, 1, 1), pool.stats());
+        } finally {
+            release.countDown();
+            pool.stop();
+            scheduler.shutdown(1000);
+        }
+    }
+
+    private static void awaitDepth(KeyPairPool pool, int depth) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (pool.stats().depth() < depth && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        assertEquals(depth, pool.stats().depth());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
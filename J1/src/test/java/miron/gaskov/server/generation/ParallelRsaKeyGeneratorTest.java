@@ -0,0 +1,47 @@
+package miron.gaskov.server.generation;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidParameterException;
+import java.security.Signature;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.interfaces.RSAPublicKey;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelRsaKeyGeneratorTest {
+
+    @Test
+    void generatesValidCrtKey() throws Exception {
+        try (var generator = new ParallelRsaKeyGenerator(4)) {
+            var kp = generator.generate(2048);
+            var pub = (RSAPublicKey) kp.getPublic();
+            var priv = (RSAPrivateCrtKey) kp.getPrivate();
+
+            assertEquals(2048, pub.getModulus().bitLength());
+            assertEquals(BigInteger.valueOf(65537), pub.getPublicExponent());
+            assertEquals(pub.getModulus(), priv.getPrimeP().multiply(priv.getPrimeQ()));
+            assertTrue(priv.getPrimeP().isProbablePrime(64));
+            assertTrue(priv.getPrimeQ().isProbablePrime(64));
+
+            byte[] data = "parallel".getBytes(StandardCharsets.US_ASCII);
+            var signer = Signature.getInstance("SHA256withRSA");
+            signer.initSign(priv);
+            signer.update(data);
+            byte[] sig = signer.sign();
+            var verifier = Signature.getInstance("SHA256withRSA");
+            verifier.initVerify(pub);
+            verifier.update(data);
+            assertTrue(verifier.verify(sig));
+        }
+    }
+
+    @Test
+    void rejectsOddSizes() {
+        try (var generator = new ParallelRsaKeyGenerator(1)) {
+            assertThrows(InvalidParameterException.class, () -> generator.generate(2047));
+        }
+    }
+}
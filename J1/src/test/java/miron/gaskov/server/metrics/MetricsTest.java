@@ -0,0 +1,82 @@
+package miron.gaskov.server.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+
+    @Test
+    void histogramBucketsAreCumulative() {
+        var metrics = new Metrics();
+        metrics.signing().record(TimeUnit.MICROSECONDS.toNanos(30));
+        metrics.signing().record(TimeUnit.MILLISECONDS.toNanos(3));
+        metrics.signing().record(TimeUnit.SECONDS.toNanos(120));
+
+        String text = metrics.prometheus();
+        assertTrue(text.contains("# TYPE keyserver_keygen_sign_seconds histogram\n"), text);
+        assertTrue(text.contains("keyserver_keygen_sign_seconds_bucket{le=\"5e-05\"} 1\n"), text);
+        assertTrue(text.contains("keyserver_keygen_sign_seconds_bucket{le=\"0.005\"} 2\n"), text);
+        assertTrue(text.contains("keyserver_keygen_sign_seconds_bucket{le=\"60\"} 2\n"), text);
+        assertTrue(text.contains("keyserver_keygen_sign_seconds_bucket{le=\"+Inf\"} 3\n"), text);
+        assertTrue(text.contains("keyserver_keygen_sign_seconds_count 3\n"), text);
+    }
+
+    @Test
+    void countersAndGaugesAppearInSnapshot() {
+        var metrics = new Metrics();
+        metrics.request();
+        metrics.request();
+        metrics.bytesOut(100);
+        metrics.sessionOpened();
+        metrics.sessionOpened();
+        metrics.sessionClosed();
+        metrics.gauge("queue_depth", "test", () -> 7);
+        metrics.counter("evictions_total", "test", () -> 5L);
+
+        var snapshot = metrics.snapshot();
+        assertEquals(2.0, snapshot.get("keyserver_requests_total"));
+        assertEquals(100.0, snapshot.get("keyserver_bytes_out_total"));
+        assertEquals(1.0, snapshot.get("keyserver_sessions_active"));
+        assertEquals(7.0, snapshot.get("keyserver_queue_depth"));
+        assertTrue(metrics.prometheus().contains("# TYPE keyserver_requests_total counter\nkeyserver_requests_total 2\n"));
+        assertEquals(5.0, snapshot.get("keyserver_evictions_total"));
+        assertTrue(metrics.prometheus().contains("# TYPE keyserver_evictions_total counter\nkeyserver_evictions_total 5\n"));
+    }
+
+    @Test
+    void labelledGaugesAreEscapedAndStayOutOfSnapshot() {
+        var metrics = new Metrics();
+        metrics.gauges("tenant_queued", "test", "tenant", () -> Map.of("10.0.0.1", 3, "a\"b\\c", 1));
+
+        String text = metrics.prometheus();
+        assertTrue(text.contains("# TYPE keyserver_tenant_queued gauge\n"), text);
+        assertTrue(text.contains("keyserver_tenant_queued{tenant=\"10.0.0.1\"} 3\n"), text);
+        assertTrue(text.contains("keyserver_tenant_queued{tenant=\"a\\\"b\\\\c\"} 1\n"), text);
+        assertFalse(metrics.snapshot().keySet().stream().anyMatch(k -> k.startsWith("keyserver_tenant_queued")));
+    }
+
+    @Test
+    void mbeanExposesMetricsAsAttributesAndNoOperations() throws Exception {
+        var metrics = new Metrics();
+        metrics.request();
+        MetricsMBean.register(metrics, 1);
+
+        var server = ManagementFactory.getPlatformMBeanServer();
+        var name = new ObjectName("miron.gaskov:type=KeyServer,port=1");
+        try {
+            assertEquals(1.0, server.getAttribute(name, "keyserver_requests_total"));
+            assertEquals(0, server.getMBeanInfo(name).getOperations().length);
+            var e = assertThrows(ReflectionException.class, () -> server.invoke(name, "reset", null, null));
+            assertInstanceOf(NoSuchMethodException.class, e.getCause());
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
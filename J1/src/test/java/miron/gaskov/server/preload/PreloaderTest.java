@@ -0,0 +1,105 @@
+package miron.gaskov.server.preload;
+
+import miron.gaskov.common.KeyType;
+import miron.gaskov.server.cache.MaterialCache;
+import miron.gaskov.server.generation.CertificateService;
+import miron.gaskov.server.generation.EntropySource;
+import miron.gaskov.server.generation.GenerationScheduler;
+import miron.gaskov.server.generation.GenerationService;
+import miron.gaskov.server.metrics.Metrics;
+import miron.gaskov.server.store.MaterialStore;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.Security;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PreloaderTest {
+
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void provider() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Test
+    void preloadedNamesAreCacheHitsAndResumeSkipsThem() throws Exception {
+        Path names = dir.resolve("names.txt");
+        Files.write(names, List.of("# tomorrow", "n1", "n2", "", "n3", "n4", "n5"));
+
+        var service = service();
+        try {
+            var preloader = new Preloader(service, 0, true);
+            assertEquals(5, preloader.start(names, null));
+            awaitFinished(preloader);
+            assertEquals(5, preloader.stats().done());
+            assertEquals("ec-p256 5", Files.readString(dir.resolve("names.txt.progress")).trim());
+
+            service.get("n3").get(5, TimeUnit.SECONDS);
+            assertEquals(1, service.cacheStats().hits());
+        } finally {
+            service.stop();
+        }
+
+        service = service();
+        try {
+            var preloader = new Preloader(service, 0, true);
+            assertEquals(0, preloader.start(names, null));
+            awaitFinished(preloader);
+            assertEquals(5, preloader.stats().resumed());
+            assertEquals(0, preloader.stats().done());
+
+            // Progress is per key type: the same file for another type starts from the top.
+            assertEquals(5, preloader.start(names, KeyType.ED25519));
+            awaitFinished(preloader);
+            assertEquals(0, preloader.stats().resumed());
+            assertEquals(5, preloader.stats().done());
+            assertEquals("ed25519 5", Files.readString(dir.resolve("names.txt.progress")).trim());
+        } finally {
+            service.stop();
+        }
+    }
+
+    @Test
+    void rateLimitPacesSubmissions() throws Exception {
+        Path names = dir.resolve("paced.txt");
+        Files.write(names, List.of("r1", "r2", "r3", "r4", "r5"));
+        var service = service();
+        try {
+            var preloader = new Preloader(service, 20, false);
+            long start = System.nanoTime();
+            preloader.start(names, KeyType.ED25519);
+            awaitFinished(preloader);
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(190));
+            assertEquals(5, preloader.stats().done());
+            assertFalse(Files.exists(dir.resolve("paced.txt.progress")));
+        } finally {
+            service.stop();
+        }
+    }
+
+    private GenerationService service() throws Exception {
+        var signer = GenerationService.generateKeyPair(KeyType.EC_P256);
+        var certs = new CertificateService(new X500Name("CN=Test Issuer"), signer.getPrivate(), null, 1);
+        var store = MaterialStore.open(dir.resolve("store"));
+        return new GenerationService(new GenerationScheduler(2, 64, 0), certs, KeyType.EC_P256,
+                new MaterialCache(1 << 20), null, store, GenerationService.AbandonPolicy.DROP, new Metrics(),
+                null, null, EntropySource.defaultSource());
+    }
+
+    private static void awaitFinished(Preloader preloader) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (preloader.stats().running() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertFalse(preloader.stats().running());
+    }
+}
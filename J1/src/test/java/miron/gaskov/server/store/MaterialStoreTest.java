@@ -0,0 +1,184 @@
+package miron.gaskov.server.store;
+
+import miron.gaskov.common.KeyType;
+import miron.gaskov.common.Pem;
+import miron.gaskov.server.generation.FramedMaterial;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MaterialStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void warmRestartServesStoredRecords() throws Exception {
+        try (var store = MaterialStore.open(dir)) {
+            store.append("a", material("a"));
+            store.append("b", material("b"));
+        }
+        try (var store = MaterialStore.open(dir)) {
+            assertEquals(2, store.size());
+            assertMaterial("a", store.get("a"));
+            assertMaterial("b", store.get("b"));
+            assertNull(store.get("c"));
+        }
+    }
+
+    @Test
+    void tornTailIsTruncated() throws Exception {
+        try (var store = MaterialStore.open(dir)) {
+            store.append("a", material("a"));
+        }
+        Path log = dir.resolve(MaterialStore.LOG_FILE);
+        long good = Files.size(log);
+        Files.write(log, new byte[]{0x4B, 0x4D, 0x52, 0x31, 0, 0, 1, 0, 7}, StandardOpenOption.APPEND);
+        Files.delete(dir.resolve(MaterialStore.INDEX_FILE));
+
+        try (var store = MaterialStore.open(dir)) {
+            assertEquals(good, Files.size(log));
+            assertMaterial("a", store.get("a"));
+            store.append("b", material("b"));
+        }
+        try (var store = MaterialStore.open(dir)) {
+            assertMaterial("a", store.get("a"));
+            assertMaterial("b", store.get("b"));
+        }
+    }
+
+    @Test
+    void compactionKeepsLatestRecord() throws Exception {
+        try (var store = MaterialStore.open(dir)) {
+            store.append("a", material("old"));
+            store.append("a", material("a"));
+            store.append("b", material("b"));
+            store.compact();
+        }
+        try (var store = MaterialStore.open(dir)) {
+            assertEquals(2, store.size());
+            assertMaterial("a", store.get("a"));
+            assertMaterial("b", store.get("b"));
+        }
+    }
+
+    @Test
+    void pemLogIsConvertedToDer() throws Exception {
+        byte[] name = "a".getBytes(StandardCharsets.UTF_8);
+        byte[] key = Pem.encode("PRIVATE KEY", "key-a".getBytes(StandardCharsets.US_ASCII));
+        byte[] crt = Pem.encode("CERTIFICATE", "crt-a".getBytes(StandardCharsets.US_ASCII));
+        int len = 2 + name.length + 4 + key.length + 4 + crt.length;
+        ByteBuffer b = ByteBuffer.allocate(12 + 12 + len);
+        b.putInt(0x4B4D4C47).putLong(42);
+        b.putInt(0x4B4D5231).putInt(len).putInt(0);
+        b.putShort((short) name.length).put(name).putInt(key.length).put(key).putInt(crt.length).put(crt);
+        var crc = new CRC32();
+        crc.update(b.array(), 24, len);
+        b.putInt(20, (int) crc.getValue());
+        Files.write(dir.resolve(MaterialStore.LOG_FILE), b.array());
+
+        try (var store = MaterialStore.open(dir)) {
+            assertMaterial("a", store.get("a"));
+        }
+        assertEquals(0x4B4D4C32, ByteBuffer.wrap(Files.readAllBytes(dir.resolve(MaterialStore.LOG_FILE))).getInt());
+        try (var store = MaterialStore.open(dir)) {
+            assertEquals(1, store.size());
+            assertMaterial("a", store.get("a"));
+        }
+    }
+
+    @Test
+    void bareNamesAreRekeyedToTheDefaultType() throws Exception {
+        try (var store = MaterialStore.open(dir)) {
+            store.append("a", material("a"));
+            store.append("b/c", material("b/c"));
+            store.append("dup", material("old"));
+            store.append("rsa-2048/dup", material("dup"));
+        }
+        try (var store = MaterialStore.open(dir, KeyType.RSA_2048)) {
+            assertEquals(3, store.size());
+            assertMaterial("a", store.get("rsa-2048/a"));
+            assertMaterial("b/c", store.get("rsa-2048/b/c"));
+            assertMaterial("dup", store.get("rsa-2048/dup"));
+            assertNull(store.get("a"));
+        }
+        try (var store = MaterialStore.open(dir, KeyType.RSA_2048)) {
+            assertEquals(3, store.size());
+            assertMaterial("a", store.get("rsa-2048/a"));
+        }
+    }
+
+    @Test
+    void readersRacingTheWriterSeeWholeRecordsOrNothing() throws Exception {
+        int count = 3000;
+        try (var store = MaterialStore.open(dir)) {
+            var failure = new AtomicReference<Throwable>();
+            var done = new AtomicBoolean();
+            var reader = Thread.ofPlatform().start(() -> {
+                try {
+                    while (!done.get()) {
+                        for (int i = 0; i < count; i += 7) {
+                            var fm = store.get("n" + i);
+                            if (fm != null) assertMaterial("n" + i, fm);
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            });
+            for (int i = 0; i < count; i++) {
+                store.append("n" + i, material("n" + i));
+                if (i % 16 == 0) Thread.yield();
+            }
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (store.size() < count && System.currentTimeMillis() < deadline) Thread.sleep(5);
+            done.set(true);
+            reader.join();
+            assertNull(failure.get());
+            assertEquals(count, store.size());
+        }
+    }
+
+    @Test
+    void onlyTheOwnerCanReadTheStore() throws Exception {
+        Assumptions.assumeTrue(dir.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        Path storeDir = dir.resolve("store");
+        try (var store = MaterialStore.open(storeDir)) {
+            store.append("a", material("a"));
+            store.compact();
+        }
+        assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(storeDir)));
+        assertEquals("rw-------", PosixFilePermissions.toString(
+                Files.getPosixFilePermissions(storeDir.resolve(MaterialStore.LOG_FILE))));
+        assertEquals("rw-------", PosixFilePermissions.toString(
+                Files.getPosixFilePermissions(storeDir.resolve(MaterialStore.INDEX_FILE))));
+    }
+
+    private static FramedMaterial material(String tag) {
+        return FramedMaterial.of(("key-" + tag).getBytes(StandardCharsets.US_ASCII),
+                ("crt-" + tag).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void assertMaterial(String tag, FramedMaterial fm) {
+        assertNotNull(fm);
+        ByteBuffer der = fm.frames(true);
+        byte[] key = new byte[der.getInt()];
+        der.get(key);
+        byte[] crt = new byte[der.getInt()];
+        der.get(crt);
+        assertEquals("key-" + tag, new String(key, StandardCharsets.US_ASCII));
+        assertEquals("crt-" + tag, new String(crt, StandardCharsets.US_ASCII));
+    }
+}